@@ -0,0 +1,743 @@
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Fully dynamic alpha-EMST: points can be inserted, deleted and moved while the
+// minimum spanning forest of the alpha-graph is kept up to date.
+public class DynamicEMST {
+
+/*
+File structure (top to bottom)
+   - Main method (randomized check against a fresh EMST)
+   - Public update API (insert, remove, move)
+   - Forest maintenance (insertion via cycle property, deletion via replacement edges)
+   - Support methods
+   - Link-cut tree (dynamic connectivity + path maximum queries)
+*/
+
+   // Point storage. Slots of deleted points are recycled, so memory is bounded
+   // by the peak number of live points and not by the number of updates
+   private double alpha;
+   private long maxSqDist;                   // Largest squared distance that is still a valid edge
+   private int[] xs, ys;
+   private boolean[] alive;
+   private int slotCount;                    // High-water mark of used point slots
+   private ArrayDeque<Integer> freePoints;
+   private int pointCount;
+
+   // Tree edges, stored by slot as well
+   private int[] edgeA, edgeB;
+   private double[] edgeW;
+   private int edgeSlotCount;
+   private ArrayDeque<Integer> freeEdges;
+   private int edgeCount;
+   private ArrayList<ArrayList<Integer>> incident;   // Tree edges incident to each point
+
+   // Weight of the forest as a compensated (Neumaier) sum: the rounding error of
+   // every edge added or removed is carried in weightError instead of being lost,
+   // so the weight does not drift over a long run of updates
+   private double totalWeight, weightError;
+
+   // Helper data structures
+   private HashMap<Long, ArrayList<Integer>> grid;   // Same alpha x alpha cells used by EMST
+   private LinkCutTree forest;                       // Answers connectivity and heaviest-edge-on-path queries
+
+   public DynamicEMST(double a) {
+
+      alpha = a;
+      maxSqDist = EMST.maxSquaredDistance(a);
+
+      xs = new int[16];
+      ys = new int[16];
+      alive = new boolean[16];
+      freePoints = new ArrayDeque<>();
+
+      edgeA = new int[16];
+      edgeB = new int[16];
+      edgeW = new double[16];
+      freeEdges = new ArrayDeque<>();
+      incident = new ArrayList<>();
+
+      grid = new HashMap<>();
+      forest = new LinkCutTree();
+   }
+
+   // Builds the initial forest by inserting the points of an input file one at a time
+   public DynamicEMST(String filePath, double a) throws Exception {
+
+      this(a);
+
+      try (Scanner fileScan = new Scanner(new FileReader(filePath)) ) {
+
+         while (fileScan.hasNextLine()) {
+
+            Scanner pointScan = new Scanner(fileScan.nextLine());
+            pointScan.useDelimiter("[(),\\s]");
+
+            insert(pointScan.nextInt(), pointScan.nextInt());
+
+            pointScan.close();
+         }
+      }
+
+      if (pointCount == 0) {
+         throw new Exception("Error while reading the points");
+      }
+   }
+
+// --------------------------------------- MAIN ---------------------------------------
+
+   // Runs random inserts, deletes and moves of points in a side x side square, and
+   // every 'every' updates compares the forest with one built from scratch by EMST
+   // (Kruskal engine, so the minimum spanning forest also when the tree does not exist):
+   // the multisets of squared edge lengths must be equal, and the weights agree
+   public static void main (String[] args) throws Exception {
+
+      if (args.length < 4) {
+         System.err.println("Invalid arguments. Correct use is: java DynamicEMST <alpha> <side> <points> <updates> [every] [seed]");
+         return;
+      }
+
+      double alpha = Double.parseDouble(args[0]);
+      int side = Integer.parseInt(args[1]);
+      int points = Integer.parseInt(args[2]);
+      long updates = Long.parseLong(args[3]);
+      long every = args.length > 4 ? Long.parseLong(args[4]) : Math.max(1, updates / 10);
+      Random random = new Random(args.length > 5 ? Long.parseLong(args[5]) : 1);
+
+      DynamicEMST emst = new DynamicEMST(alpha);
+      ArrayList<Integer> ids = new ArrayList<>();
+
+      for (int i = 0; i < points; i++) ids.add(emst.insert(random.nextInt(side), random.nextInt(side)));
+
+      for (long u = 1; u <= updates; u++) {
+
+         int op = random.nextInt(3);
+         int k = random.nextInt(ids.size());
+
+         if (op == 0 || ids.size() < 2) {
+            ids.add(emst.insert(random.nextInt(side), random.nextInt(side)));
+         } else if (op == 1) {
+            emst.remove(ids.get(k));
+            ids.set(k, ids.get(ids.size() - 1));
+            ids.remove(ids.size() - 1);
+         } else {
+            emst.move(ids.get(k), random.nextInt(side), random.nextInt(side));
+         }
+
+         if (u % every == 0 || u == updates) {
+            System.out.println(u + " " + emst.compareWithFresh());
+         }
+      }
+   }
+
+   // Builds the forest of the live points from scratch and checks this one against it
+   String compareWithFresh () throws Exception {
+
+      Path file = Files.createTempFile("dynamic-emst", ".txt");
+      long[] sqDists = new long[edgeCount];
+      long[] freshSqDists;
+      double freshWeight = 0, freshError = 0;
+
+      try {
+         int[] idOfLine = new int[pointCount];
+         int lines = 0;
+
+         try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int id = 0; id < slotCount; id++) {
+               if (alive[id]) {
+                  out.println(pointString(id));
+                  idOfLine[lines++] = id;
+               }
+            }
+         }
+
+         EMST.Options options = new EMST.Options();
+         options.engine = EMST.Engine.KRUSKAL;
+         int[][] fresh = new EMST(file.toString(), alpha, false, options).treeEdgeIndices();
+
+         freshSqDists = new long[fresh.length];
+
+         for (int i = 0; i < fresh.length; i++) {
+            int a = idOfLine[fresh[i][0]], b = idOfLine[fresh[i][1]];
+            long xDiff = xs[a] - xs[b];
+            long yDiff = ys[a] - ys[b];
+            freshSqDists[i] = xDiff * xDiff + yDiff * yDiff;
+
+            // Same compensated sum as addWeight
+            double w = Math.sqrt(freshSqDists[i]);
+            double sum = freshWeight + w;
+            freshError += Math.abs(freshWeight) >= Math.abs(w) ? (freshWeight - sum) + w : (w - sum) + freshWeight;
+            freshWeight = sum;
+         }
+      } finally {
+         Files.delete(file);
+      }
+
+      int i = 0;
+      for (int e = 0; e < edgeSlotCount; e++) {
+         if (edgeA[e] >= 0) {
+            long xDiff = xs[edgeA[e]] - xs[edgeB[e]];
+            long yDiff = ys[edgeA[e]] - ys[edgeB[e]];
+            sqDists[i++] = xDiff * xDiff + yDiff * yDiff;
+         }
+      }
+
+      Arrays.sort(sqDists);
+      Arrays.sort(freshSqDists);
+
+      if (!Arrays.equals(sqDists, freshSqDists)) {
+         throw new IllegalStateException("Forest differs from a fresh EMST: " + sqDists.length + " edges, fresh " + freshSqDists.length);
+      }
+
+      double expected = freshWeight + freshError;
+      double difference = Math.abs(weight() - expected);
+
+      if (difference > 1e-9 * Math.max(1, expected)) {
+         throw new IllegalStateException("Weight " + weight() + " drifted from the fresh " + expected);
+      }
+
+      return String.format(java.util.Locale.US, "%d points, %d edges, weight %.6f, fresh %.6f", pointCount, edgeCount, weight(), expected);
+   }
+
+// ------------------------------------------ UPDATE API -----------------------------------------
+
+   // Adds a point and returns its id. Ids of removed points may be handed out again
+   public int insert (int x, int y) {
+
+      int id = freePoints.isEmpty() ? newPointSlot() : freePoints.pop();
+      insertAt(id, x, y);
+
+      return id;
+   }
+
+   // Deletes a point, reconnecting the pieces of its tree with the cheapest replacement edges
+   public void remove (int id) {
+
+      if (!isAlive(id)) throw new IllegalArgumentException("No live point with id " + id);
+
+      ArrayList<Integer> pieceRoots = new ArrayList<>();
+
+      for (int e : new ArrayList<>(incident.get(id))) {
+         pieceRoots.add(edgeA[e] == id ? edgeB[e] : edgeA[e]);
+         removeTreeEdge(e);
+      }
+
+      grid.get(cellKey(xs[id], ys[id])).remove(Integer.valueOf(id));
+      if (grid.get(cellKey(xs[id], ys[id])).isEmpty()) grid.remove(cellKey(xs[id], ys[id]));
+
+      alive[id] = false;
+      pointCount--;
+      freePoints.push(id);
+
+      if (pieceRoots.size() > 1) reconnect(pieceRoots);
+   }
+
+   // Moves a point to a new position. The point keeps its id
+   public void move (int id, int x, int y) {
+
+      remove(id);
+
+      // remove() just pushed the slot on top of the free list
+      freePoints.pop();
+      insertAt(id, x, y);
+   }
+
+   public boolean isAlive (int id) {
+      return id >= 0 && id < slotCount && alive[id];
+   }
+
+   public int size () {
+      return pointCount;
+   }
+
+   // Number of trees in the spanning forest: 1 means the alpha-EMST exists
+   public int components () {
+      return pointCount - edgeCount;
+   }
+
+   public double weight () {
+      return totalWeight + weightError;
+   }
+
+   // Current tree edges as {idA, idB} pairs
+   public ArrayList<int[]> edges () {
+
+      ArrayList<int[]> out = new ArrayList<>(edgeCount);
+
+      for (int e = 0; e < edgeSlotCount; e++) {
+         if (edgeA[e] >= 0) out.add(new int[] {edgeA[e], edgeB[e]});
+      }
+
+      return out;
+   }
+
+   // Same format as EMST: the weight if the tree spans all points, FAIL otherwise
+   @Override
+   public String toString () {
+
+      if (pointCount == 0 || components() > 1) return "FAIL";
+
+      String outStr = String.format(java.util.Locale.US, "%.2f", weight());
+
+      if (pointCount <= 10) {
+         for (int[] e : edges()) {
+            outStr = outStr + "\n" + pointString(e[0]) + pointString(e[1]);
+         }
+      }
+
+      return outStr;
+   }
+
+// -------------------------------------- FOREST MAINTENANCE -------------------------------------
+
+   private void insertAt (int id, int x, int y) {
+
+      xs[id] = x;
+      ys[id] = y;
+      alive[id] = true;
+      pointCount++;
+
+      // Collect the valid neighbors before registering the point in its own cell
+      ArrayList<long[]> candidates = new ArrayList<>();
+      collectNeighbors(id, candidates);
+
+      grid.computeIfAbsent(cellKey(x, y), k -> new ArrayList<>()).add(id);
+
+      // The new forest is the MSF of the old forest plus the new point's edges:
+      // every new edge either joins two trees or replaces the heaviest edge on the
+      // cycle it closes (cycle property)
+      candidates.sort((c1, c2) -> Long.compare(c1[0], c2[0]));
+
+      for (long[] c : candidates) {
+
+         int nb = (int) c[1];
+         double w = Math.sqrt(c[0]);
+
+         if (!forest.connected(vertexNode(id), vertexNode(nb))) {
+            addTreeEdge(id, nb, w);
+            continue;
+         }
+
+         int heaviest = forest.pathMax(vertexNode(id), vertexNode(nb));
+         int e = edgeOf(heaviest);
+
+         if (edgeW[e] > w) {
+            removeTreeEdge(e);
+            addTreeEdge(id, nb, w);
+         }
+      }
+   }
+
+   // After a deletion the old tree is split into one piece per former neighbor.
+   // The remaining tree edges stay optimal, so only the cheapest edges between the
+   // pieces are missing. Those are searched for in the grid neighborhood of every
+   // piece except the largest one, which is never traversed
+   private void reconnect (ArrayList<Integer> pieceRoots) {
+
+      int pieces = pieceRoots.size();
+      HashMap<Integer, Integer> pieceOf = new HashMap<>();
+      ArrayList<ArrayList<Integer>> members = new ArrayList<>();
+      ArrayList<ArrayDeque<Integer>> frontiers = new ArrayList<>();
+
+      for (int i = 0; i < pieces; i++) {
+         int root = pieceRoots.get(i);
+         pieceOf.put(root, i);
+         members.add(new ArrayList<>(List.of(root)));
+         frontiers.add(new ArrayDeque<>(List.of(root)));
+      }
+
+      // Grow all the pieces one vertex at a time: the last one still growing is the
+      // largest, and the cost stays proportional to the smaller pieces
+      int active = pieces;
+      int largest = -1;
+
+      while (largest < 0) {
+         for (int i = 0; i < pieces && largest < 0; i++) {
+
+            ArrayDeque<Integer> frontier = frontiers.get(i);
+            if (frontier.isEmpty()) continue;
+
+            int v = frontier.poll();
+
+            for (int e : incident.get(v)) {
+               int w = edgeA[e] == v ? edgeB[e] : edgeA[e];
+
+               if (!pieceOf.containsKey(w)) {
+                  pieceOf.put(w, i);
+                  members.get(i).add(w);
+                  frontier.add(w);
+               }
+            }
+
+            if (frontier.isEmpty() && --active == 1) {
+               for (int j = 0; j < pieces; j++) {
+                  if (!frontiers.get(j).isEmpty()) largest = j;
+               }
+            }
+         }
+      }
+
+      // Candidate replacement edges leaving the small pieces. Any alpha-neighbor that
+      // was not labelled belongs to the largest piece
+      ArrayList<long[]> candidates = new ArrayList<>();
+      ArrayList<long[]> neighbors = new ArrayList<>();
+
+      for (int i = 0; i < pieces; i++) {
+         if (i == largest) continue;
+
+         for (int v : members.get(i)) {
+            neighbors.clear();
+            collectNeighbors(v, neighbors);
+
+            for (long[] nb : neighbors) {
+               int w = (int) nb[1];
+               int j = pieceOf.getOrDefault(w, largest);
+
+               if (j != i) candidates.add(new long[] {nb[0], v, w, i, j});
+            }
+         }
+      }
+
+      // Kruskal over the contracted pieces
+      candidates.sort((c1, c2) -> Long.compare(c1[0], c2[0]));
+      EMST.UnionFind pieceSets = new EMST.UnionFind(pieces);
+
+      for (long[] c : candidates) {
+         if (pieceSets.union((int) c[3], (int) c[4])) {
+            addTreeEdge((int) c[1], (int) c[2], Math.sqrt(c[0]));
+            if (--pieces == 1) break;
+         }
+      }
+   }
+
+   private void addTreeEdge (int a, int b, double w) {
+
+      int e = freeEdges.isEmpty() ? newEdgeSlot() : freeEdges.pop();
+
+      edgeA[e] = a;
+      edgeB[e] = b;
+      edgeW[e] = w;
+
+      forest.setValue(edgeNode(e), w);
+      forest.link(vertexNode(a), edgeNode(e));
+      forest.link(edgeNode(e), vertexNode(b));
+
+      incident.get(a).add(e);
+      incident.get(b).add(e);
+
+      edgeCount++;
+      addWeight(w);
+   }
+
+   private void removeTreeEdge (int e) {
+
+      int a = edgeA[e];
+      int b = edgeB[e];
+
+      forest.cut(vertexNode(a), edgeNode(e));
+      forest.cut(edgeNode(e), vertexNode(b));
+
+      incident.get(a).remove(Integer.valueOf(e));
+      incident.get(b).remove(Integer.valueOf(e));
+
+      edgeA[e] = edgeB[e] = -1;
+      freeEdges.push(e);
+
+      edgeCount--;
+      addWeight(-edgeW[e]);
+   }
+
+// --------------------------------------- SUPPORT METHODS ---------------------------------------
+
+   private void addWeight (double w) {
+
+      double sum = totalWeight + w;
+
+      if (Math.abs(totalWeight) >= Math.abs(w)) {
+         weightError += (totalWeight - sum) + w;
+      } else {
+         weightError += (w - sum) + totalWeight;
+      }
+
+      totalWeight = sum;
+   }
+
+   // Appends {squaredDistance, id} for every live point within alpha of point p
+   private void collectNeighbors (int p, ArrayList<long[]> out) {
+
+      int xCell = cellCoord(xs[p]);
+      int yCell = cellCoord(ys[p]);
+
+      for (int xShift = -1; xShift <= 1; xShift++) {
+         for (int yShift = -1; yShift <= 1; yShift++) {
+
+            ArrayList<Integer> cell = grid.get(packCell(xCell + xShift, yCell + yShift));
+            if (cell == null) continue;
+
+            for (int nb : cell) {
+               if (nb == p) continue;
+
+               long xDiff = xs[p] - xs[nb];
+               long yDiff = ys[p] - ys[nb];
+               long sqDist = xDiff * xDiff + yDiff * yDiff;
+
+               if (sqDist <= maxSqDist) out.add(new long[] {sqDist, nb});
+            }
+         }
+      }
+   }
+
+   private int cellCoord (int c) {
+      return (int) Math.floor(c / alpha);
+   }
+
+   private long cellKey (int x, int y) {
+      return packCell(cellCoord(x), cellCoord(y));
+   }
+
+   private static long packCell (int xCell, int yCell) {
+      return ((long) xCell << 32) | (yCell & 0xFFFFFFFFL);
+   }
+
+   private String pointString (int id) {
+      return "(" + xs[id] + "," + ys[id] + ")";
+   }
+
+   // Points and edges share the link-cut tree: points on odd nodes, edges on even ones
+   private static int vertexNode (int id) {
+      return 2 * id + 1;
+   }
+
+   private static int edgeNode (int e) {
+      return 2 * e + 2;
+   }
+
+   private static int edgeOf (int node) {
+      return node / 2 - 1;
+   }
+
+   private int newPointSlot () {
+
+      if (slotCount == xs.length) {
+         xs = Arrays.copyOf(xs, 2 * slotCount);
+         ys = Arrays.copyOf(ys, 2 * slotCount);
+         alive = Arrays.copyOf(alive, 2 * slotCount);
+      }
+
+      incident.add(new ArrayList<>(4));
+      forest.ensureCapacity(vertexNode(slotCount) + 1);
+
+      return slotCount++;
+   }
+
+   private int newEdgeSlot () {
+
+      if (edgeSlotCount == edgeA.length) {
+         edgeA = Arrays.copyOf(edgeA, 2 * edgeSlotCount);
+         edgeB = Arrays.copyOf(edgeB, 2 * edgeSlotCount);
+         edgeW = Arrays.copyOf(edgeW, 2 * edgeSlotCount);
+      }
+
+      forest.ensureCapacity(edgeNode(edgeSlotCount) + 1);
+
+      return edgeSlotCount++;
+   }
+
+// ----------------------------------------- LINK-CUT TREE ----------------------------------------
+
+   // Splay-based link-cut tree over a forest of nodes. Node 0 is the null node.
+   // Every node carries a value and each splay subtree tracks the node holding the
+   // maximum value, so the heaviest edge on a tree path is found in O(log n) amortized
+   static class LinkCutTree {
+
+      private int[] left, right, parent, maxNode;
+      private boolean[] flipped;
+      private double[] value;
+      private int[] splayPath;
+
+      LinkCutTree () {
+         left = right = parent = maxNode = new int[0];
+         flipped = new boolean[0];
+         value = new double[0];
+         splayPath = new int[64];
+         ensureCapacity(32);
+      }
+
+      void ensureCapacity (int nodes) {
+
+         if (nodes <= left.length) return;
+
+         int size = Math.max(nodes, 2 * left.length);
+         int oldSize = left.length;
+
+         left = Arrays.copyOf(left, size);
+         right = Arrays.copyOf(right, size);
+         parent = Arrays.copyOf(parent, size);
+         maxNode = Arrays.copyOf(maxNode, size);
+         flipped = Arrays.copyOf(flipped, size);
+         value = Arrays.copyOf(value, size);
+
+         for (int x = oldSize; x < size; x++) {
+            value[x] = Double.NEGATIVE_INFINITY;
+            maxNode[x] = x;
+         }
+      }
+
+      void setValue (int x, double v) {
+         access(x);
+         splay(x);
+         value[x] = v;
+         update(x);
+      }
+
+      boolean connected (int x, int y) {
+         return x == y || findRoot(x) == findRoot(y);
+      }
+
+      void link (int x, int y) {
+         makeRoot(x);
+         parent[x] = y;
+      }
+
+      void cut (int x, int y) {
+         makeRoot(x);
+         access(y);
+         splay(y);
+
+         // x is now y's left child with nothing between them
+         left[y] = 0;
+         parent[x] = 0;
+         update(y);
+      }
+
+      // Node with the largest value on the path between x and y
+      int pathMax (int x, int y) {
+         makeRoot(x);
+         access(y);
+         splay(y);
+         return maxNode[y];
+      }
+
+      private boolean isSplayRoot (int x) {
+         int p = parent[x];
+         return p == 0 || (left[p] != x && right[p] != x);
+      }
+
+      private void update (int x) {
+
+         int best = x;
+
+         if (left[x] != 0 && value[maxNode[left[x]]] > value[best]) best = maxNode[left[x]];
+         if (right[x] != 0 && value[maxNode[right[x]]] > value[best]) best = maxNode[right[x]];
+
+         maxNode[x] = best;
+      }
+
+      private void flip (int x) {
+         if (x == 0) return;
+
+         int tmp = left[x];
+         left[x] = right[x];
+         right[x] = tmp;
+         flipped[x] = !flipped[x];
+      }
+
+      private void pushDown (int x) {
+         if (flipped[x]) {
+            flip(left[x]);
+            flip(right[x]);
+            flipped[x] = false;
+         }
+      }
+
+      private void rotate (int x) {
+
+         int p = parent[x];
+         int g = parent[p];
+
+         if (!isSplayRoot(p)) {
+            if (left[g] == p) left[g] = x;
+            else right[g] = x;
+         }
+         parent[x] = g;
+
+         if (left[p] == x) {
+            left[p] = right[x];
+            if (right[x] != 0) parent[right[x]] = p;
+            right[x] = p;
+         } else {
+            right[p] = left[x];
+            if (left[x] != 0) parent[left[x]] = p;
+            left[x] = p;
+         }
+         parent[p] = x;
+
+         update(p);
+         update(x);
+      }
+
+      private void splay (int x) {
+
+         // Push pending flips from the splay root down to x first
+         int depth = 0;
+
+         for (int y = x; ; y = parent[y]) {
+            if (depth == splayPath.length) splayPath = Arrays.copyOf(splayPath, 2 * depth);
+            splayPath[depth++] = y;
+            if (isSplayRoot(y)) break;
+         }
+         while (depth > 0) pushDown(splayPath[--depth]);
+
+         while (!isSplayRoot(x)) {
+
+            int p = parent[x];
+
+            if (!isSplayRoot(p)) {
+               int g = parent[p];
+               boolean zigZig = (left[g] == p) == (left[p] == x);
+               rotate(zigZig ? p : x);
+            }
+            rotate(x);
+         }
+      }
+
+      private void access (int x) {
+
+         int last = 0;
+
+         for (int y = x; y != 0; y = parent[y]) {
+            splay(y);
+            right[y] = last;
+            update(y);
+            last = y;
+         }
+
+         splay(x);
+      }
+
+      private void makeRoot (int x) {
+         access(x);
+         flip(x);
+      }
+
+      private int findRoot (int x) {
+
+         access(x);
+
+         int r = x;
+         pushDown(r);
+
+         while (left[r] != 0) {
+            r = left[r];
+            pushDown(r);
+         }
+
+         splay(r);
+         return r;
+      }
+   }
+
+}
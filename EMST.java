@@ -1,5 +1,7 @@
 import java.io.FileReader;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class EMST {
    
@@ -14,15 +16,19 @@ File structure (top to bottom)
 // --------------------------------------- MAIN ---------------------------------------
    public static void main(String[] args) {
       
+      String usage = "Invalid arguments. Correct use is: java EMST <path/to/file.txt> <alpha> [-v]"
+                   + " [-engine auto|prim|eager|kruskal|yao] [-cell <size>|auto] [-approx <epsilon>] [-check] [-clusters] [-linkage] [-condensed <min cluster size>] [-mutual <k>] [-budget <megabytes>] [-order hilbert|morton] [-simd] [-bucket] [-prune <ratio>] [-prune-best] [-dedup] [-threads <k>] [-frontiers <k>] [-stats]";
+
       // Check command line arguments 
-      if (args.length < 2 || args.length > 3) {
-         System.err.println("Invalid arguments. Correct use is: java EMST <path/to/file.txt> <alpha> [-v]");
+      if (args.length < 2) {
+         System.err.println(usage);
          return;
       }
 
       String filePath = args[0];
       double alpha    = 0.0;
       boolean vMode   = false;      // Visual mode defaults to false
+      Options options = new Options();
       
       // Error parsing alpha 
       try {
@@ -32,20 +38,110 @@ File structure (top to bottom)
          return;
       }
 
-      if ( args.length == 3 && args[2].equals("-v") ) vMode = true;
+      // Optional flags
+      try {
+         for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+               case "-v":     vMode = true; break;
+               case "-engine": options.engine = Engine.valueOf(args[++i].toUpperCase()); break;
+               case "-cell":  options.cellSize = parseCellSize(args[++i]); break;
+               case "-approx": options.epsilon = parseEpsilon(args[++i]); options.approx = true; break;
+               case "-order": options.order = Order.valueOf(args[++i].toUpperCase()); break;
+               case "-simd":  options.simd = true; break;
+               case "-bucket": options.bucketQueue = true; break;
+               case "-prune": options.pruneRatio = Double.parseDouble(args[++i]); break;
+               case "-prune-best": options.pruneBest = true; break;
+               case "-dedup": options.dedup = true; break;
+               case "-check": options.check = true; break;
+               case "-clusters": options.clusters = true; break;
+               case "-linkage": options.linkage = true; break;
+               case "-mutual": options.mutualK = parseNeighborCount(args[++i]); break;
+               case "-condensed": options.minClusterSize = parseMinClusterSize(args[++i]); break;
+               case "-budget": options.budget = (long) (Double.parseDouble(args[++i]) * (1 << 20)); break;
+               case "-threads": options.threads = Integer.parseInt(args[++i]); break;
+               case "-frontiers": options.frontiers = Integer.parseInt(args[++i]); break;
+               case "-stats": options.stats = true; break;
+               default:       throw new IllegalArgumentException(args[i]);
+            }
+         }
+      } catch (RuntimeException e) {
+         System.err.println(usage);
+         return;
+      }
 
       EMST emst;
 
       try {
-         emst = new EMST(filePath, alpha, vMode);
+         emst = new EMST(filePath, alpha, vMode, options);
       } catch (Exception e) {
          System.err.println(e);
          return;
       }
 
       // If not in visual mode, print to terminal
-      if (!vMode) System.out.println(emst);
+      if (!vMode && options.clusters) printClusters(emst);
+      else if (!vMode && options.linkage) printLinkage(emst);
+      else if (!vMode && options.minClusterSize > 0) System.out.print(emst.condensedTree(options.minClusterSize));
+      else if (!vMode) System.out.println(emst);
+
+      if (options.stats) System.err.println(emst.statistics());
+
+   }
+
+   // Number of clusters, then the cluster of each point, one per line in input order
+   private static void printClusters (EMST emst) {
+
+      StringBuilder out = new StringBuilder().append(emst.clusterCount()).append('\n');
+      for (int label : emst.clusters()) out.append(label).append('\n');
+
+      System.out.print(out);
+   }
+
+   // One row of the linkage matrix per line: the two clusters merged, their distance and the new size
+   private static void printLinkage (EMST emst) {
+
+      StringBuilder out = new StringBuilder();
+
+      for (double[] row : emst.linkage()) {
+         out.append((int) row[0]).append(' ').append((int) row[1]).append(' ')
+            .append(row[2]).append(' ').append((int) row[3]).append('\n');
+      }
+
+      System.out.print(out);
+   }
+
+   // -approx: the proof of the bound needs 1 + epsilon < sqrt(2), see YaoEMST()
+   private static double parseEpsilon (String arg) {
+
+      double epsilon = Double.parseDouble(arg);
+      if (!(epsilon >= 0 && epsilon < MAX_EPSILON)) throw new IllegalArgumentException(arg);
+
+      return epsilon;
+   }
+
+   static final double MAX_EPSILON = 0.4;
+
+   // -condensed: a single point cannot be a cluster of its own
+   private static int parseMinClusterSize (String arg) {
+
+      int size = Integer.parseInt(arg);
+      if (size < 2) throw new IllegalArgumentException(arg);
+
+      return size;
+   }
+
+   // -mutual: the core distance is the one to the k-th nearest other point, k >= 1
+   private static int parseNeighborCount (String arg) {
+
+      int k = Integer.parseInt(arg);
+      if (k < 1) throw new IllegalArgumentException(arg);
+
+      return k;
+   }
 
+   // -cell: a side, or "auto" (-1) to tune it from the density of the points
+   private static double parseCellSize (String arg) {
+      return arg.equals("auto") ? -1 : Double.parseDouble(arg);
    }
 
 // -------------------------------- PRIM'S STRATEGY IMPLEMENTATION -------------------------------
@@ -57,20 +153,57 @@ File structure (top to bottom)
    private int maxCoord;
    private boolean visual;
 
+   private Options options;
+
    // Output informations
    private double totalWeight;
-   private ArrayList<Edge> treeEdges;
+   private int[] treeFrom, treeTo;                    // Tree edges as point ids, in the order they were added
+   private double[] treeWeight;
+   private long[] treeSqDist;                         // Integer squared weights, the keys the edges were accepted with
+   private int treeSize;
+   private int[] inputIndex;                          // inputIndex[p.id] is p's line in the input file
+   private ArrayList<Point> duplicates;               // Points set aside by -dedup, with ids after the unique ones
+   private int[] duplicateOf;                         // duplicateOf[k] is the id of the unique point duplicates.get(k) sits on
    int timeStep;
 
    // Helper data structures  
-   private HashMap<Integer, ArrayList<Point>> grid;   // Grid subdivision of the plane. Each grid has dimensions alpha x alpha    
-   private PriorityQueue<Edge> minPQ;                 // Priority Queue for Prim's algorithm
+   private CellTable grid;                            // Grid subdivision of the plane. Each cell has dimensions cellSize x cellSize
+   private double cellSize;                           // alpha, or alpha / k with -cell
+   private Stencil stencil;                           // Cells scanned around a point's own, in order of distance
+   private EdgeQueue minPQ;                           // Priority Queue for Prim's algorithm
+   private long maxSqDist;                            // Valid edges have squared length <= maxSqDist
+   private NeighborKernel kernel;                     // Finds the valid neighbors of a point in one cell
+   private int largestCell;                           // Size of the largest cell, for the kernel output buffers
+   private NeighborhoodScan scan;                     // Scan buffers of the sequential engine
+   private Plan plan;                                 // Estimates of the budget mode
+   private Feasibility check;                         // Result of the -check pre-check
+   private int[] clusterOf;                           // -clusters: cluster of each point, by input line
+   private int clusterCount;
+   private GridIndex queries;                         // Index of the batch queries, built on the first one
+
+   // Stale entries: candidates whose outside endpoint has joined the EMST since they were pushed
+   private int[] pendingTo;                           // Queued candidates per outside endpoint
+   private long staleCount;
+   private long[] bestKey;                            // Scratch for the best-per-point compaction
+
+   // Counters, printed with -stats
+   private long pushedCount, stalePopped, purgedCount, compactions;
+   private long cellsSkipped, cellsWithin;
+   private long speculationRejected;
+   private long frontierPhases;
 
    // Initializes by reading the input file, constructs the grid and runs Prim's algorithm 
    public EMST(String filePath, double a, boolean v) throws Exception {
+      this(filePath, a, v, new Options());
+   }
+
+   public EMST(String filePath, double a, boolean v, Options opt) throws Exception {
 
       alpha = a;
       visual = v;
+      options = opt;
+      maxSqDist = maxSquaredDistance(a);
+      kernel = options.simd ? loadSimdKernel() : new ScalarKernel();
    
       points = new ArrayList<>();
       parsePoints(filePath);
@@ -79,245 +212,3101 @@ File structure (top to bottom)
       if (vCount == 0) {
          throw new Exception("Errore durante la lettura dei punti");
       } 
-         
-      grid = new HashMap<>();
-      fillGrid();
 
-      PrimEMST();
-   }
+      inputIndex = new int[vCount];
+      for (int i = 0; i < vCount; i++) inputIndex[i] = i;
 
-   // Prim's algorithm
-   private void PrimEMST () {
+      if (options.order != Order.INPUT) reorderPoints(options.order);
 
-      if (visual) setupVisuals();
+      // Duplicates count as neighbors in the core distances, so -mutual keeps them
+      if (options.dedup && options.mutualK == 0) collapseDuplicates();
 
-      treeEdges   = new ArrayList<>();
-      totalWeight = 0.0;
+      // Clustering mode: only the components of the valid pairs, no tree
+      if (options.clusters) {
+         findClusters();
+         return;
+      }
 
-      minPQ = new PriorityQueue<>();
+      // Pre-check: if the occupied cells fall apart, no engine needs to run
+      if (options.check) {
+         check = check();
+         System.err.println(check);
 
-      // Start from the first point 
-      Point startPoint = points.get(0);
-      visitPointNeighborhood(startPoint);
+         if (check.fails()) {
+            initTree();
+            return;
+         }
+      }
 
-      while (!minPQ.isEmpty() && treeEdges.size() < vCount-1) {
+      // Only the Yao engine has an approximate mode (-approx 0 runs it exactly)
+      if (options.approx) options.engine = Engine.YAO;
+
+      // Budget mode: estimate every engine's footprint and pick the fastest that fits
+      if (options.budget > 0 && !options.approx && options.mutualK == 0) {
+         plan = plan(options.budget);
+         if (options.stats) System.err.println(plan);
+
+         if (plan.choice == null) {
+            throw new Exception("No engine fits in the memory budget");
+         }
+         options.engine = plan.choice;
+      }
          
-         Edge minEdge = minPQ.poll();
+      if (options.mutualK > 0) {
+         MutualReachabilityEMST();
+      } else if (options.engine == Engine.KRUSKAL) {
+         KruskalEMST();
+      } else if (options.engine == Engine.YAO) {
+         YaoEMST();
+      } else {
+         grid = new CellTable();
+         setCellSize();
+         fillGrid();
+
+         // With alpha much larger than the spacing of the points, cells hold so many
+         // points that the neighbor scans turn quadratic: the Yao graph does not
+         // depend on alpha
+         if (options.engine == Engine.AUTO) {
+            options.engine = scanWork() > DENSE_SCAN_WORK ? Engine.YAO : Engine.PRIM;
+         }
 
-         Point u = minEdge.first;
-         Point v = minEdge.second;
+         if (options.engine == Engine.YAO) {
+            grid = null;
+            YaoEMST();
+         } else if (options.engine == Engine.EAGER) EagerPrimEMST();
+         else if (options.frontiers > 1) FrontierPrimEMST();
+         else if (options.threads > 1) ParallelPrimEMST();
+         else PrimEMST();
+      }
 
-         // Both points are already in the EMST, skip this edge
-         if (u.inEMST && v.inEMST) continue;
+      if (duplicates != null) expandDuplicates();
+   }
 
-         treeEdges.add(minEdge);
-         totalWeight += minEdge.weight;
+   // Prim's algorithm
+   private void PrimEMST () {
 
-         // If in visual mode, show each edge being added
-         if (visual) {
-            StdDraw.setPenColor(StdDraw.LINES);
-            StdDraw.setPenRadius(0.006);
-            StdDraw.line(u.xPos, u.yPos, v.xPos, v.yPos);
+      startPrim();
+
+      // Candidates are primitive (squared length, from, to) entries, so the loop allocates nothing
+      while (!minPQ.isEmpty() && treeSize < vCount-1) {
+         
+         long sqDist = minPQ.minKey();
+         Point u = points.get(minPQ.minFrom());
+         Point v = points.get(minPQ.minTo());
+         minPQ.pop();
+         pendingTo[v.id]--;
 
-            StdDraw.show();
-            StdDraw.pause(timeStep);
+         // Both points are already in the EMST, skip this edge
+         // (u was in the EMST when the edge was pushed)
+         if (v.inEMST) {
+            staleCount--;
+            stalePopped++;
+            continue;
          }
 
-         // Only check the neighbors of the new point
-         Point newPoint = u.inEMST ? v : u;
-         visitPointNeighborhood(newPoint);
+         // Every other queued edge towards v is stale from now on
+         staleCount += pendingTo[v.id];
 
-      }
+         addTreeEdge(u, v, sqDist);
 
-      if (visual) {
-         
-         if (treeEdges.size() == vCount - 1) {
-            StdDraw.setPenColor(StdDraw.GREEN);
-            StdDraw.text(maxCoord / 2.0, maxCoord * 1.02, "SUCCESS: a-EMST Computed");
-         } else {
-            StdDraw.setPenColor(StdDraw.RED);
-            StdDraw.text(maxCoord / 2.0, maxCoord * 1.02, "FAIL: Alpha too small");
+         // Only check the neighbors of the new point
+         visitPointNeighborhood(v);
+
+         if (staleCount > options.pruneRatio * minPQ.size() && minPQ.size() >= MIN_PRUNE_SIZE) {
+            compactQueue();
          }
-      
-         StdDraw.show();
+
       }
+
+      if (visual) showOutcome();
    }
-   
-   // Determines p's cell in the grid and computes its distances from the points
-   // in neighboring cells (the only ones that may fall within the desired distance)
-   private void visitPointNeighborhood(Point p) {
 
-      p.inEMST = true;
+   // Multi-core Prim. Each round speculatively pops the next candidates towards
+   // distinct outside points, and the worker threads scan their neighborhoods at
+   // the same time. The batch is then validated in key order: an edge is accepted
+   // only if no edge found by the points accepted before it in the round, towards a
+   // point still outside, is shorter. That is exactly the condition for it to be the
+   // next edge of the sequential algorithm, so the weight does not change. The first
+   // edge always passes; from the first rejection on, the edges go back in the PQ
+   // and their scans are dropped
+   private void ParallelPrimEMST () {
+
+      startPrim();
+
+      int threads = options.threads;
+      int maxBatch = threads * SPECULATION;
+      int batchLimit = maxBatch;                         // Shrinks after rejections, grows back after clean rounds
+
+      NeighborhoodScan[] scans = new NeighborhoodScan[maxBatch];
+      for (int i = 0; i < maxBatch; i++) {
+         scans[i] = new NeighborhoodScan(newKernel());
+      }
+
+      long[] batchKey = new long[maxBatch];
+      int[] batchFrom = new int[maxBatch], batchTo = new int[maxBatch];
+      boolean[] inBatch = new boolean[vCount];
+
+      // Edges found in the round that could invalidate a later edge of the same round
+      EdgeList threats = new EdgeList();
 
-      int xCell = (int)(p.xPos/alpha);
-      int yCell = (int)(p.yPos/alpha);
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      ArrayList<Callable<Void>> tasks = new ArrayList<>();
+      int[] batch = new int[1];
 
-      // Check the neighboring cells
-      for (int xShift = -1; xShift <= 1; xShift++) {
-         for (int yShift = -1; yShift <= 1; yShift++) {
+      for (int t = 0; t < threads; t++) {
+         int first = t;
+         tasks.add(() -> {
+            for (int i = first; i < batch[0]; i += threads) scans[i].run(points.get(batchTo[i]));
+            return null;
+         });
+      }
+
+      try {
+         while (!minPQ.isEmpty() && treeSize < vCount-1) {
+
+            // Speculative extraction: the shortest candidates towards distinct outside points
+            int size = 0;
+
+            while (size < batchLimit && !minPQ.isEmpty()) {
+
+               int to = minPQ.minTo();
+
+               if (points.get(to).inEMST) {
+                  minPQ.pop();
+                  pendingTo[to]--;
+                  staleCount--;
+                  stalePopped++;
+                  continue;
+               }
 
-            int neighborCellKey = Objects.hash(xCell + xShift, yCell + yShift);
+               // A second edge towards the same point is only needed if the first is rejected
+               if (inBatch[to]) break;
 
-            if (grid.containsKey(neighborCellKey)) {
-               ArrayList<Point> neighborPoints = grid.get(neighborCellKey);
+               batchKey[size] = minPQ.minKey();
+               batchFrom[size] = minPQ.minFrom();
+               batchTo[size] = to;
+               inBatch[to] = true;
+               size++;
 
-               for ( Point nb : neighborPoints ) {
+               minPQ.pop();
+               pendingTo[to]--;
+            }
+
+            if (size == 0) break;
+
+            // The neighborhood scans of the whole batch run in parallel
+            batch[0] = size;
+
+            if (size == 1) {
+               scans[0].run(points.get(batchTo[0]));
+            } else {
+               for (Future<Void> f : pool.invokeAll(tasks)) f.get();
+            }
+
+            // Validation, in key order
+            threats.size = 0;
+            batchLimit = Math.min(maxBatch, 2 * batchLimit);
 
-                  // Skip p and points that are already in the EMST
-                  if (nb == p || nb.inEMST) continue;
- 
-                  Edge candidate = new Edge(p, nb);
+            for (int i = 0; i < size; i++) {
 
-                  // Only add valid edges to the PQ
-                  if (candidate.weight <= alpha) {
-                     minPQ.add(candidate);
+               if (i > 0 && threatened(threats, batchKey[i])) {
+
+                  for (int j = i; j < size; j++) {
+                     minPQ.push(batchKey[j], batchFrom[j], batchTo[j]);
+                     pendingTo[batchTo[j]]++;
                   }
+                  speculationRejected += size - i;
+                  batchLimit = Math.max(threads, batchLimit / 4);
+                  break;
+               }
 
+               Point v = points.get(batchTo[i]);
+
+               // Every other queued edge towards v is stale from now on
+               staleCount += pendingTo[v.id];
+
+               v.inEMST = true;
+               v.cell.inEMST[v.slot] = true;
+               addTreeEdge(points.get(batchFrom[i]), v, batchKey[i]);
+
+               pushCandidates(scans[i]);
+
+               for (int h = 0; h < scans[i].hits; h++) {
+                  if (scans[i].sqDists[h] < batchKey[size-1]) threats.add(scans[i].sqDists[h], v.id, scans[i].ids[h]);
                }
             }
 
+            for (int i = 0; i < size; i++) inBatch[batchTo[i]] = false;
+
+            if (staleCount > options.pruneRatio * minPQ.size() && minPQ.size() >= MIN_PRUNE_SIZE) {
+               compactQueue();
+            }
          }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         pool.shutdownNow();
       }
 
+      if (visual) showOutcome();
    }
 
-// --------------------------------------- SUPPORT METHODS ---------------------------------------
+   // Candidates popped per thread in each round of the parallel engine
+   private static final int SPECULATION = 4;
 
-   // Reads points from the input file
-   private void parsePoints (String filePath) {
+   // True if one of the edges found in this round is shorter than key and leads to
+   // a point still outside the EMST
+   private boolean threatened (EdgeList threats, long key) {
 
-      try (Scanner fileScan = new Scanner(new FileReader(filePath)) ) {
+      for (int h = 0; h < threats.size; h++) {
+         if (threats.sqDist[h] < key && !points.get(threats.b[h]).inEMST) return true;
+      }
 
-         while (fileScan.hasNextLine()) {
-            
-            Scanner pointScan = new Scanner(fileScan.nextLine());
-            pointScan.useDelimiter("[(),\\s]");
-            
-            points.add( new Point(pointScan.nextInt(), pointScan.nextInt()) );
-            
-            pointScan.close();
-         }
+      return false;
+   }
 
-         timeStep = (int)Math.log10(points.size());
+   // Prim with k frontiers seeded in different regions of the plane (the middles of
+   // k equal runs of the points in Hilbert order), grown at the same time on the
+   // worker threads. Every vertex is claimed by one frontier through an atomic
+   // owner array. A frontier grows like the sequential engine as long as its
+   // shortest outgoing edge leads to an unclaimed point; when it leads into another
+   // component instead, that edge is the lightest leaving the component, so it is
+   // in the EMST (as in Borůvka's algorithm), and the frontier stops there.
+   // Once every frontier has stopped, the components are contracted along those
+   // edges, their PQs are melded, and the merged components grow again. Components
+   // whose PQ runs out are complete; points left unclaimed seed new frontiers
+   private void FrontierPrimEMST () {
 
-      } catch (Exception e) { 
-         System.err.println(e);
+      if (visual) setupVisuals();
+
+      initTree();
+
+      AtomicIntegerArray owner = new AtomicIntegerArray(vCount);   // Claiming frontier, -1 if none
+      for (int i = 0; i < vCount; i++) owner.set(i, -1);
+
+      // Points in Hilbert order: runs of this order are compact regions of the plane
+      int[] byCurve = new int[vCount];
+      for (int i = 0; i < vCount; i++) byCurve[i] = i;
+      sortByKey(curveKeys(Order.HILBERT), byCurve, vCount);
+
+      ArrayList<Frontier> frontiers = new ArrayList<>();
+      ArrayList<Frontier> active = new ArrayList<>();
+      UnionFind components = new UnionFind(vCount);
+      int[] rep = new int[vCount];                             // Component of each frontier, for the current phase
+
+      int k = Math.min(options.frontiers, vCount);
+      for (int i = 0; i < k; i++) {
+         int seed = byCurve[(int) ((2L * i + 1) * vCount / (2L * k))];
+         active.add(seedFrontier(frontiers, owner, seed));
       }
 
-   }
+      ThreadLocal<NeighborhoodScan> scans = ThreadLocal.withInitial(() -> new NeighborhoodScan(newKernel()));
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, options.threads));
+      int cursor = 0;
 
-   // Construct the grid. Points in the same cell are mapped in the same bucket
-   private void fillGrid () {
+      try {
+         while (treeSize < vCount - 1) {
 
-      for (Point p : points) {
-         int xCell = (int)(p.xPos/alpha);
-         int yCell = (int)(p.yPos/alpha);
+            // Every component is complete or merged: seed the next frontiers among the unclaimed points
+            if (active.isEmpty()) {
+
+               while (cursor < vCount && active.size() < k) {
+                  if (owner.get(byCurve[cursor]) < 0) active.add(seedFrontier(frontiers, owner, byCurve[cursor]));
+                  cursor++;
+               }
+
+               if (active.isEmpty()) break;
+            }
+
+            for (Frontier f : frontiers) rep[f.id] = components.find(f.id);
+
+            ArrayList<Callable<Void>> growth = new ArrayList<>();
+            for (Frontier f : active) {
+               growth.add(() -> {
+                  f.grow(owner, rep, scans.get());
+                  return null;
+               });
+            }
+            for (Future<Void> r : pool.invokeAll(growth)) r.get();
+
+            frontierPhases++;
+
+            // Contraction: the stopping edges join components, skipping the ones
+            // that would close a cycle (possible only among equal lengths)
+            for (Frontier f : active) {
+
+               for (int i = 0; i < f.grown.size; i++) {
+                  addTreeEdge(points.get(f.grown.a[i]), points.get(f.grown.b[i]), f.grown.sqDist[i]);
+               }
+               f.grown.size = 0;
+               pushedCount  += f.pushed;
+               cellsSkipped += f.skipped;
+               cellsWithin  += f.within;
+               f.pushed = f.skipped = f.within = 0;
+
+               if (f.stopped && components.union(f.id, owner.get(f.stopTo))) {
+                  addTreeEdge(points.get(f.stopFrom), points.get(f.stopTo), f.stopKey);
+               }
+            }
+
+            // Melding: each merged component keeps the largest PQ of its members and
+            // absorbs the others, dropping the entries that have become internal
+            ArrayList<Frontier> next = new ArrayList<>();
 
-         int cellKey = Objects.hash(xCell,yCell);
+            for (Frontier f : active) {
 
-         grid.putIfAbsent(cellKey, new ArrayList<Point>());
-         grid.get(cellKey).add(p);
+               Frontier r = frontiers.get(components.find(f.id));
+
+               if (r != f) {
+                  if (r.queue.size() < f.queue.size()) {
+                     EdgeHeap tmp = r.queue;
+                     r.queue = f.queue;
+                     f.queue = tmp;
+                  }
+
+                  EdgeHeap into = r.queue;
+                  f.queue.retain((key, from, to) -> {
+                     int o = owner.get(to);
+                     if (o < 0 || components.find(o) != r.id) into.push(key, from, to);
+                     return false;
+                  });
+                  f.queue = null;
+               }
+
+               if (!r.done && !r.listed) {
+                  r.listed = true;
+                  next.add(r);
+               }
+            }
+
+            for (Frontier f : next) {
+               f.listed = false;
+               f.stopped = false;
+            }
+
+            active = next;
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         pool.shutdownNow();
       }
 
+      if (visual) showOutcome();
    }
 
-   // Setup the window for visual mode
-   private void setupVisuals () {
-      maxCoord = 0;
+   private Frontier seedFrontier (ArrayList<Frontier> frontiers, AtomicIntegerArray owner, int seed) {
 
-      for (Point p : points ) {
-         if (p.xPos > maxCoord ) maxCoord = p.xPos;
-         if (p.yPos > maxCoord ) maxCoord = p.yPos;
-      }
-      
-      StdDraw.setCanvasSize(1200,1200);
+      Frontier f = new Frontier(frontiers.size(), seed);
+      frontiers.add(f);
+      owner.set(seed, f.id);
 
-      StdDraw.setXscale(-maxCoord * 0.05, maxCoord * 1.05);
-      StdDraw.setYscale(-maxCoord * 0.05, maxCoord * 1.05);
+      return f;
+   }
 
-      StdDraw.enableDoubleBuffering();
+   // One component of the multi-frontier engine: a lazy Prim PQ of the edges leaving
+   // it, and the tree edges it has grown in the current phase
+   private class Frontier {
 
-      StdDraw.clear(StdDraw.BG);
+      final int id;                   // Also the id of the component while this frontier represents it
+      EdgeHeap queue = new EdgeHeap();
+      EdgeList grown = new EdgeList();
+      int seed;                       // Point whose neighborhood is still to be scanned, -1 once done
+      long pushed, skipped, within;   // Counters, collected after each phase
 
-      StdDraw.setPenRadius(0.010);
-      StdDraw.setPenColor(StdDraw.FG);
+      boolean stopped, done, listed;
+      long stopKey;                   // Lightest edge into another component, when stopped
+      int stopFrom, stopTo;
 
-      for (Point p : points) {
-         StdDraw.point(p.xPos, p.yPos);
+      Frontier (int i, int s) {
+         id = i;
+         seed = s;
       }
 
-      StdDraw.show();
-   }
+      // Grows the component until its lightest outgoing edge leads into another
+      // component (stopped), or nothing leaves it anymore (done). Runs on a worker
+      // thread: it only touches its own state, the owner array and the grid
+      void grow (AtomicIntegerArray owner, int[] rep, NeighborhoodScan scan) {
 
-   // Output information to terminal (for visual mode off)
-   @Override
-   public String toString () {
-      
-      if (treeEdges.size() < vCount-1) {
-         return "FAIL";
+         if (seed >= 0) {
+            push(points.get(seed), owner, rep, scan);
+            seed = -1;
+         }
+
+         while (!queue.isEmpty()) {
+
+            long key = queue.minKey();
+            int from = queue.minFrom();
+            int to = queue.minTo();
+            queue.pop();
+
+            int o = owner.get(to);
+
+            // Stale: both endpoints are already in the component
+            if (o >= 0 && rep[o] == id) continue;
+
+            if (o < 0 && owner.compareAndSet(to, -1, id)) {
+               grown.add(key, from, to);
+               push(points.get(to), owner, rep, scan);
+               continue;
+            }
+
+            stopped = true;
+            stopKey = key;
+            stopFrom = from;
+            stopTo = to;
+            return;
+         }
+
+         done = true;
       }
 
-      String outStr = String.format(java.util.Locale.US, "%.2f", totalWeight);
+      // Queues the edges from p to the points outside the component. Points of other
+      // components are kept: they are where this one will stop
+      private void push (Point p, AtomicIntegerArray owner, int[] rep, NeighborhoodScan scan) {
 
-      if (vCount <= 10) {
-         for (Edge e : treeEdges) {
-            outStr = outStr + "\n" +  e;
+         scan.run(p);
+
+         for (int h = 0; h < scan.hits; h++) {
+            int o = owner.get(scan.ids[h]);
+            if (o >= 0 && rep[o] == id) continue;
+            queue.push(scan.sqDists[h], p.id, scan.ids[h]);
+            pushed++;
          }
+
+         skipped += scan.skipped;
+         within  += scan.within;
+         scan.skipped = scan.within = 0;
       }
-      
-      return outStr;
    }
 
-   // Euclidean distance 
-   private static double euclideanDist (Point a, Point b) {
+   // Common setup of the Prim engines: empty tree and PQ, then the first point
+   private void startPrim () {
 
-      double xDiff = a.xPos - b.xPos;
-      double yDiff = a.yPos - b.yPos;
+      if (visual) setupVisuals();
 
-      return Math.sqrt(xDiff * xDiff + yDiff * yDiff);
+      initTree();
+
+      // Squared lengths are integers in [0, maxSqDist]: when that range is small
+      // enough, a bucket queue replaces the comparison-based heap
+      boolean buckets = options.bucketQueue && maxSqDist < BucketQueue.MAX_BUCKETS;
+      minPQ = buckets ? new BucketQueue((int) maxSqDist + 1) : new EdgeHeap();
+
+      pendingTo  = new int[vCount];
+      staleCount = 0;
+      scan = new NeighborhoodScan(kernel);
+
+      // Start from the first point 
+      Point startPoint = points.get(0);
+      visitPointNeighborhood(startPoint);
    }
 
-// --------------------------------------- SUPPORT CLASSES ---------------------------------------
+   // Eager Prim: instead of every candidate edge, the PQ holds one entry per outside
+   // point, keyed by its shortest edge towards the EMST and lowered when a shorter
+   // one is found (decreaseKey on an indexed heap). It never holds more than n
+   // entries and has no stale ones, whatever alpha is
+   private void EagerPrimEMST () {
 
-   private static class Point {
+      if (visual) setupVisuals();
 
-      int xPos, yPos;
-      boolean inEMST;
+      initTree();
 
-      public Point (int x, int y) {
-         xPos = x;
-         yPos = y;
-         inEMST = false;
-      }
+      IndexedHeap minPQ = new IndexedHeap(vCount);
+      int[] edgeFrom = new int[vCount];                  // Other endpoint of each outside point's shortest edge
+      scan = new NeighborhoodScan(kernel);
 
-      @Override
-      public String toString () {
-         return "(" + xPos + "," + yPos + ")";
+      // Start from the first point
+      Point p = points.get(0);
+
+      while (true) {
+
+         p.inEMST = true;
+         p.cell.inEMST[p.slot] = true;
+
+         // The scan only reports points that are not in the EMST yet
+         scan.run(p);
+
+         for (int h = 0; h < scan.hits; h++) {
+            int nb = scan.ids[h];
+            if (minPQ.offer(nb, scan.sqDists[h])) edgeFrom[nb] = p.id;
+         }
+
+         pushedCount  += scan.hits;
+         cellsSkipped += scan.skipped;
+         cellsWithin  += scan.within;
+         scan.skipped = scan.within = 0;
+
+         if (minPQ.isEmpty() || treeSize == vCount - 1) break;
+
+         long sqDist = minPQ.minKey();
+         p = points.get(minPQ.pop());
+
+         addTreeEdge(points.get(edgeFrom[p.id]), p, sqDist);
       }
+
+      if (visual) showOutcome();
    }
 
-   // Edge representation
-   static class Edge implements Comparable<Edge> {
+   // Kruskal's algorithm: a batch engine over all the valid pairs, which the grid
+   // enumerates exactly once each through the half stencil
+   private void KruskalEMST () {
 
-      Point first, second;
-      double weight;
+      if (visual) setupVisuals();
 
-      public Edge (Point aPoint, Point bPoint) {
-         first = aPoint;
-         second = bPoint;
-         
-         weight = euclideanDist(aPoint, bPoint);
+      initTree();
+
+      int[] xs = new int[vCount], ys = new int[vCount];
+      for (Point p : points) {
+         xs[p.id] = p.xPos;
+         ys[p.id] = p.yPos;
       }
 
-      // Must be implemented to make the PQ work
-      @Override
-      public int compareTo (Edge other) {
-         return Double.compare(weight, other.weight);
+      GridIndex index = new GridIndex(xs, ys, vCount, alpha, options.threads);
+      EdgeList candidates = new EdgeList();
+
+      index.forEachPair(maxSqDist, (a, b, sqDist) -> candidates.add(sqDist, a, b));
+      pushedCount = candidates.size;
+
+      // Sorted spanning forest edges
+      candidates.keepSpanningForest(vCount);
+
+      for (int i = 0; i < candidates.size && treeSize < vCount - 1; i++) {
+         addTreeEdge(points.get(candidates.a[i]), points.get(candidates.b[i]), candidates.sqDist[i]);
       }
 
-      @Override
-      public String toString () {
-         return first.toString() + second.toString();
+      if (visual) showOutcome();
+   }
+
+   // Kruskal's algorithm under the mutual reachability distance of HDBSCAN,
+   // max(core(a), core(b), |ab|), where core(p) is the distance from p to its k-th
+   // nearest other point. All three are square roots of integers, so the squared
+   // distance is the largest of three integers and sorts exactly. The core distances
+   // come from a k-nearest-neighbor search on the same grid as the pairs, bounded by
+   // alpha: a point with fewer than k points within alpha has no edge. Since the
+   // distance is at least |ab|, the pairs within alpha hold every valid edge
+   private void MutualReachabilityEMST () {
+
+      if (visual) setupVisuals();
+
+      initTree();
+
+      int[] xs = new int[vCount], ys = new int[vCount];
+      for (Point p : points) {
+         xs[p.id] = p.xPos;
+         ys[p.id] = p.yPos;
+      }
+
+      GridIndex index = new GridIndex(xs, ys, vCount, alpha, options.threads);
+      long[] coreSqDist = index.kthSqDists(options.mutualK, maxSqDist, options.threads);
+      EdgeList candidates = new EdgeList();
+
+      index.forEachPair(maxSqDist, (a, b, sqDist) -> {
+         long reach = Math.max(sqDist, Math.max(coreSqDist[a], coreSqDist[b]));
+         if (reach <= maxSqDist) candidates.add(reach, a, b);
+      });
+      pushedCount = candidates.size;
+
+      candidates.keepSpanningForest(vCount);
+
+      for (int i = 0; i < candidates.size && treeSize < vCount - 1; i++) {
+         addTreeEdge(points.get(candidates.a[i]), points.get(candidates.b[i]), candidates.sqDist[i]);
+      }
+
+      if (visual) showOutcome();
+   }
+
+   // Kruskal's algorithm over the Yao graph: around every point the plane is cut
+   // into 8 cones of 45 degrees, and only the edge to the nearest point of each cone
+   // is kept (if within alpha). If r is nearer to p than q and in the same cone,
+   // the angle between them is below 60 degrees and |rq| < |pq|: every pair left
+   // out is the longest edge of a cycle of shorter ones, so the graph (at most 8n
+   // edges) still contains the EMST. The nearest points are searched on a grid
+   // sized from the density of the points rather than from alpha, in rings of cells
+   // from the inside out, until no cone can improve: the work per point depends on
+   // the spacing of the points, not on alpha.
+   //
+   // With -approx, a cone stops as soon as no point can be nearer than its current
+   // one by more than a factor 1 + epsilon. It then keeps some r with |pr| <=
+   // (1 + epsilon) |pq| for all q of the cone, and with 1 + epsilon < sqrt(2) and
+   // an angle below 45 degrees still |rq| < |pq|. By induction on |pq|, every
+   // pair within alpha is joined by a path of kept edges no longer than (1 +
+   // epsilon) |pq|: the forest has the same components as the exact one, and,
+   // threshold by threshold, its weight is at most 1 + epsilon times the EMST's.
+   // A distant block of cells small enough for its distance also gives only one
+   // point, see ConeSearch.represent(): most of what -approx saves comes from there
+   private void YaoEMST () {
+
+      if (visual) setupVisuals();
+
+      initTree();
+
+      int[] xs = new int[vCount], ys = new int[vCount];
+      for (Point p : points) {
+         xs[p.id] = p.xPos;
+         ys[p.id] = p.yPos;
+      }
+
+      GridIndex index = new GridIndex(xs, ys, vCount, tunedCellSize(xs, ys, vCount, FINE_CELL_POINTS), options.threads);
+      GridIndex.Blocks blocks = new GridIndex.Blocks(index);
+      Stencil rings = new Stencil(YAO_STENCIL_RINGS, index.cellSize, Long.MAX_VALUE);
+
+      int slices = Math.max(1, Math.min(options.threads, vCount / YAO_SLICE));
+      EdgeList[] found = new EdgeList[slices];
+      long[] skipped = new long[slices];
+
+      parallelFor(slices, s -> {
+
+         ConeSearch search = new ConeSearch(index, blocks, rings);
+         EdgeList edges = found[s] = new EdgeList();
+
+         for (int i = sliceStart(s, slices, vCount); i < sliceStart(s + 1, slices, vCount); i++) {
+            search.run(i, edges);
+         }
+
+         skipped[s] = search.skipped;
+      });
+
+      EdgeList candidates = found[0];
+
+      for (int s = 1; s < slices; s++) {
+         for (int e = 0; e < found[s].size; e++) candidates.add(found[s].sqDist[e], found[s].a[e], found[s].b[e]);
+         found[s] = null;
+      }
+
+      for (long k : skipped) cellsSkipped += k;
+      pushedCount = candidates.size;
+
+      // Sorted spanning forest edges
+      candidates.keepSpanningForest(vCount);
+
+      for (int i = 0; i < candidates.size && treeSize < vCount - 1; i++) {
+         addTreeEdge(points.get(candidates.a[i]), points.get(candidates.b[i]), candidates.sqDist[i]);
+      }
+
+      if (visual) showOutcome();
+   }
+
+   private static final int YAO_SLICE = 1 << 10;
+
+   // Rings of cells searched in order of distance by the Yao engine; beyond them the
+   // search goes on in bands of rings, which only happens around sparse regions
+   private static final int YAO_STENCIL_RINGS = 8;
+
+   // Beyond the stencil, a band of rings at distance r is as wide as the blocks of
+   // the largest level no wider than r / YAO_BAND_RINGS cells, and is searched from
+   // the blocks YAO_BAND_LEVELS levels above
+   private static final int YAO_BAND_RINGS = 8;
+   private static final int YAO_BAND_LEVELS = 3;
+
+   // Largest share of its distance that the diameter of a block may reach for -approx
+   // to take a single point of it, see ConeSearch.represent()
+   static final double MAX_COVER = 0.15;
+
+   // Nearest point in each of the 8 cones around the points of a fine grid. Points
+   // on the same coordinates have no direction between them: each one is linked by
+   // a zero-length edge to the coincident point with the smallest id, and only that
+   // one searches its cones, the others would find the same points
+   private class ConeSearch {
+
+      static final int CONES = 8;
+
+      // First direction of each cone: cone k covers the angles in [45k, 45k + 45)
+      final int[][] rays = { {1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1} };
+
+      final GridIndex index;
+      final GridIndex.Blocks blocks;
+      final Stencil stencil;
+      final int minX, minY, maxX, maxY;                  // Bounding box of the points
+      final int xFirst, yFirst, xLast, yLast;            // and its range of cells
+      final long[] best = new long[CONES];
+      final int[] nearest = new int[CONES];
+      final long[] reach = new long[CONES];
+      final double slack = (1 + options.epsilon) * (1 + options.epsilon);
+      final double cover = Math.min(options.epsilon, MAX_COVER);
+      long skipped;                                      // Cells and blocks pruned by their bounding box
+
+      private int i, x, y;                               // Point being searched, and its position in the index
+      private int coincident;
+
+      ConeSearch (GridIndex g, GridIndex.Blocks b, Stencil s) {
+
+         index = g;
+         blocks = b;
+         stencil = s;
+
+         int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+         for (int c = 0; c < g.cellCount; c++) {
+            x0 = Math.min(x0, g.cellMinX[c]);
+            y0 = Math.min(y0, g.cellMinY[c]);
+            x1 = Math.max(x1, g.cellMaxX[c]);
+            y1 = Math.max(y1, g.cellMaxY[c]);
+         }
+
+         minX = x0;
+         minY = y0;
+         maxX = x1;
+         maxY = y1;
+
+         xFirst = g.cellCoord(minX);
+         yFirst = g.cellCoord(minY);
+         xLast = g.cellCoord(maxX);
+         yLast = g.cellCoord(maxY);
+      }
+
+      // Adds the edges of the point in position i of the index. The cells of the
+      // stencil are searched from the nearest, then the rings beyond it from the
+      // inside out, in bands that widen with their distance and are searched block
+      // by block. The search stops at the first ring farther than the nearest point
+      // of every cone, or than the farthest point of the bounding box in the cones
+      // that are still empty
+      void run (int pos, EdgeList edges) {
+
+         i = pos;
+         x = index.sortedX[i];
+         y = index.sortedY[i];
+         coincident = -1;
+
+         int id = index.order[i];
+         int xCell = index.cellCoord(x), yCell = index.cellCoord(y);
+
+         setReach();
+         Arrays.fill(nearest, -1);
+
+         long bound = bound();
+         boolean done = false;
+
+         for (int s = 0; s < stencil.size; s++) {
+
+            if (stencil.minSqDist[s] > bound) {
+               done = true;
+               break;
+            }
+
+            scanCell(xCell + stencil.xShift[s], yCell + stencil.yShift[s], bound);
+
+            // Coincident points share a cell, so they are all known after their own
+            if (stencil.xShift[s] == 0 && stencil.yShift[s] == 0 && coincident >= 0 && coincident < id) {
+               edges.add(0, id, coincident);
+               return;
+            }
+
+            bound = bound();
+         }
+
+         for (long inner = stencil.rings; !done; ) {
+
+            if (xCell - inner <= xFirst && yCell - inner <= yFirst && xCell + inner >= xLast && yCell + inner >= yLast) break;
+
+            // The points beyond ring inner are more than inner cells away on some axis
+            double gap = Math.max(0, inner * index.cellSize - 1);
+            if (gap * gap > bound) break;
+
+            long width = inner / YAO_BAND_RINGS;
+            int level = width < 2 ? 0 : Math.min(blocks.levels - 1, 63 - Long.numberOfLeadingZeros(width));
+            long outer = inner + (1L << level);
+
+            searchBand(xCell, yCell, inner, outer, level, bound);
+
+            inner = outer;
+            bound = bound();
+         }
+
+         for (int k = 0; k < CONES; k++) {
+            if (nearest[k] >= 0) edges.add(best[k], id, nearest[k]);
+         }
+
+         if (coincident >= 0) edges.add(0, id, coincident);
+      }
+
+      // Longest edge that can still be kept in some cone. With -approx, a cone that
+      // has a point only looks for ones shorter by more than a factor 1 + epsilon
+      private long bound () {
+
+         long bound = -1;
+
+         for (int k = 0; k < CONES; k++) {
+            long need = nearest[k] < 0 ? Math.min(reach[k], maxSqDist) : slack == 1 ? best[k] : (long) (best[k] / slack);
+            bound = Math.max(bound, need);
+         }
+
+         return bound;
+      }
+
+      private void scanCell (int xCell, int yCell, long bound) {
+
+         if (xCell < xFirst || xCell > xLast || yCell < yFirst || yCell > yLast) return;
+
+         int c = index.cellIndex(xCell, yCell);
+         if (c < 0) return;
+
+         long xGap = Math.max(0, Math.max((long) index.cellMinX[c] - x, (long) x - index.cellMaxX[c]));
+         long yGap = Math.max(0, Math.max((long) index.cellMinY[c] - y, (long) y - index.cellMaxY[c]));
+         if (xGap * xGap + yGap * yGap > bound) {
+            skipped++;
+            return;
+         }
+
+         for (int j = index.cellStart[c]; j < index.cellStart[c+1]; j++) offer(j);
+      }
+
+      // Searches the cells more than inner and at most outer cells away from the
+      // point's cell on some axis, through the blocks that meet them: those of the
+      // square of outer rings, clipped to the occupied range, except the ones lying
+      // inside the square of inner rings. The blocks are taken YAO_BAND_LEVELS levels
+      // above the width of the band, so an empty region costs one lookup
+      private void searchBand (int xCell, int yCell, long inner, long outer, int bandLevel, long bound) {
+
+         int level = Math.min(blocks.levels - 1, bandLevel + YAO_BAND_LEVELS);
+
+         long xLo = Math.max(xCell - outer, xFirst) >> level, xHi = Math.min(xCell + outer, xLast) >> level;
+         long yLo = Math.max(yCell - outer, yFirst) >> level, yHi = Math.min(yCell + outer, yLast) >> level;
+
+         long xInLo = -(-(xCell - inner) >> level), xInHi = ((xCell + inner + 1) >> level) - 1;
+         long yInLo = -(-(yCell - inner) >> level), yInHi = ((yCell + inner + 1) >> level) - 1;
+
+         for (long by = yLo; by <= yHi; by++) {
+
+            boolean inside = by >= yInLo && by <= yInHi;
+
+            for (long bx = xLo; bx <= xHi; bx++) {
+
+               if (inside && bx >= xInLo && bx <= xInHi) {
+                  bx = xInHi;
+                  continue;
+               }
+
+               searchBlock(level, (int) bx, (int) by, xCell, yCell, inner, outer, bound);
+            }
+         }
+      }
+
+      // Searches the cells of a block that lie in the band. An empty block, or one
+      // farther than the bound, is skipped as a whole; with -approx, a block small
+      // enough for its distance only gives one of its points
+      private void searchBlock (int level, int bx, int by, int xCell, int yCell, long inner, long outer, long bound) {
+
+         long x0 = (long) bx << level, x1 = x0 + (1L << level) - 1;
+         long y0 = (long) by << level, y1 = y0 + (1L << level) - 1;
+
+         if (x0 >= xCell - inner && x1 <= xCell + inner && y0 >= yCell - inner && y1 <= yCell + inner) return;
+         if (x1 < xCell - outer || x0 > xCell + outer || y1 < yCell - outer || y0 > yCell + outer) return;
+
+         int b = blocks.index(level, bx, by);
+         if (b < 0) return;
+
+         int[] minX = blocks.minX[level], minY = blocks.minY[level], maxX = blocks.maxX[level], maxY = blocks.maxY[level];
+
+         long xGap = Math.max(0, Math.max((long) minX[b] - x, (long) x - maxX[b]));
+         long yGap = Math.max(0, Math.max((long) minY[b] - y, (long) y - maxY[b]));
+         long gap = xGap * xGap + yGap * yGap;
+
+         if (gap > bound) {
+            skipped++;
+            return;
+         }
+
+         if (cover > 0 && represent(level, b, gap)) return;
+
+         if (level == 0) {
+            for (int j = index.cellStart[b]; j < index.cellStart[b+1]; j++) offer(j);
+            return;
+         }
+
+         for (int child = 0; child < 4; child++) {
+            searchBlock(level - 1, 2 * bx + (child & 1), 2 * by + (child >> 1), xCell, yCell, inner, outer, bound);
+         }
+      }
+
+      // With -approx, offers only one point c of a block whose diameter is at most
+      // cover times its distance from p, and entirely within alpha. For every point
+      // q of the block, the cone of c then keeps some r with |pr| <= |pc| <= (1 +
+      // cover) |pq|, less than 45 degrees plus asin(cover) away from q. With cover
+      // <= 0.15, 1 + cover < 2 cos of that angle, so |rq| < |pq| and the proof of
+      // YaoEMST() still holds, with a factor 1 + cover <= 1 + epsilon
+      private boolean represent (int level, int b, long gap) {
+
+         long width = (long) blocks.maxX[level][b] - blocks.minX[level][b];
+         long height = (long) blocks.maxY[level][b] - blocks.minY[level][b];
+         if (gap == 0 || width * width + height * height > cover * cover * gap) return false;
+
+         long xFar = Math.max(Math.abs((long) blocks.minX[level][b] - x), Math.abs((long) blocks.maxX[level][b] - x));
+         long yFar = Math.max(Math.abs((long) blocks.minY[level][b] - y), Math.abs((long) blocks.maxY[level][b] - y));
+         if (xFar * xFar + yFar * yFar > maxSqDist) return false;
+
+         offer(blocks.point[level][b]);
+         return true;
+      }
+
+      // Considers the point in position j of the index for its cone
+      private void offer (int j) {
+
+         long xDiff = index.sortedX[j] - x;
+         long yDiff = index.sortedY[j] - y;
+         long sqDist = xDiff * xDiff + yDiff * yDiff;
+
+         if (sqDist == 0) {
+            if (j != i && (coincident < 0 || index.order[j] < coincident)) coincident = index.order[j];
+         } else if (sqDist <= maxSqDist) {
+            int k = cone(xDiff, yDiff);
+            if (nearest[k] < 0 || sqDist < best[k]) {
+               best[k] = sqDist;
+               nearest[k] = index.order[j];
+            }
+         }
+      }
+
+      // Squared distance from (x, y) to the farthest point of the bounding box in each
+      // cone. The part of the box in a cone is a convex polygon, so that point is
+      // where one of the cone's two rays leaves the box, or a corner of the box. From
+      // a point near the border, the cones facing out reach only a few units
+      private void setReach () {
+
+         for (int k = 0; k < CONES; k++) {
+            reach[k] = Math.max(exitSqDist(rays[k]), exitSqDist(rays[(k + 1) % CONES]));
+         }
+
+         for (int corner = 0; corner < 4; corner++) {
+
+            long xDiff = ((corner & 1) == 0 ? minX : maxX) - (long) x;
+            long yDiff = ((corner & 2) == 0 ? minY : maxY) - (long) y;
+
+            if (xDiff != 0 || yDiff != 0) {
+               int k = cone(xDiff, yDiff);
+               reach[k] = Math.max(reach[k], xDiff * xDiff + yDiff * yDiff);
+            }
+         }
+      }
+
+      // Squared length of the ray from (x, y) in direction ray, up to the border of the box
+      private long exitSqDist (int[] ray) {
+
+         long t = Long.MAX_VALUE;
+
+         if (ray[0] > 0) t = Math.min(t, (long) maxX - x);
+         if (ray[0] < 0) t = Math.min(t, (long) x - minX);
+         if (ray[1] > 0) t = Math.min(t, (long) maxY - y);
+         if (ray[1] < 0) t = Math.min(t, (long) y - minY);
+
+         return t * t * (ray[0] * ray[0] + ray[1] * ray[1]);
+      }
+   }
+
+   // Cone of direction (xDiff, yDiff) != (0, 0): k covers the angles in [45k, 45k + 45)
+   static int cone (long xDiff, long yDiff) {
+
+      int quadrant = 0;
+
+      // Turn by 90 degrees clockwise until the direction is in [0, 90)
+      while (xDiff <= 0 || yDiff < 0) {
+         long t = xDiff;
+         xDiff = yDiff;
+         yDiff = -t;
+         quadrant++;
+      }
+
+      return 2 * quadrant + (yDiff < xDiff ? 0 : 1);
+   }
+
+   // Mean number of distances computed per point by the neighbor scans of Prim:
+   // each point is compared with all the points of the stencil cells around its
+   // own. With a large stencil only a sample of the cells is measured
+   private double scanWork () {
+
+      long work = 0, seen = 0;
+      int step = (int) Math.max(1, (long) grid.size() * stencil.size / SCAN_WORK_LOOKUPS);
+      int visited = 0;
+
+      for (int slot = 0; slot < grid.capacity(); slot++) {
+
+         Cell cell = grid.valueAt(slot);
+         if (cell == null || visited++ % step != 0) continue;
+
+         long key = grid.keyAt(slot);
+         int xCell = (int) key ^ Integer.MIN_VALUE;
+         int yCell = (int) (key >> 32);
+         long around = 0;
+
+         for (int s = 0; s < stencil.size; s++) {
+            Cell c = grid.get(GridIndex.key(xCell + stencil.xShift[s], yCell + stencil.yShift[s]));
+            if (c != null) around += c.size;
+         }
+
+         work += cell.size * around;
+         seen += cell.size;
+      }
+
+      return (double) work / seen;
+   }
+
+   private static final long SCAN_WORK_LOOKUPS = 1 << 22;
+
+   // Above this scan work per point, AUTO runs the Yao engine: about where the two
+   // engines took the same time on uniform and clustered inputs
+   static final double DENSE_SCAN_WORK = 250;
+
+   // Points per cell, as seen from a point, aimed at by the fine grid of the Yao
+   // engine and by the Prim grid with -cell auto. Prim's cells stay large enough
+   // for a map lookup to cost little next to the kernel's pass over the cell
+   static final double FINE_CELL_POINTS = 3;
+   static final double PRIM_CELL_POINTS = 96;
+
+   private static final int TUNING_ROUNDS = 4;
+
+   // Cell side giving about target points per cell as seen from a point, that is
+   // the mean of the cell sizes weighted by size, which is what the scans pay for.
+   // It starts from the mean density of the bounding box, then counts the points
+   // of the occupied cells and rescales, which corrects for clustered points
+   static double tunedCellSize (int[] xs, int[] ys, int n, double target) {
+
+      long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE, maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+
+      for (int i = 0; i < n; i++) {
+         minX = Math.min(minX, xs[i]);
+         minY = Math.min(minY, ys[i]);
+         maxX = Math.max(maxX, xs[i]);
+         maxY = Math.max(maxY, ys[i]);
+      }
+
+      double area = (double) (maxX - minX + 1) * (maxY - minY + 1);
+      double size = Math.max(1, Math.sqrt(area * target / Math.max(1, n)));
+      long[] keys = new long[n];
+
+      for (int round = 0; round < TUNING_ROUNDS && n > 0; round++) {
+
+         for (int i = 0; i < n; i++) {
+            keys[i] = GridIndex.key((int) Math.floor(xs[i] / size), (int) Math.floor(ys[i] / size));
+         }
+
+         Arrays.sort(keys);
+
+         long sqSizes = 0;
+
+         for (int i = 0, run = 1; i < n; i++, run++) {
+            if (i == n - 1 || keys[i] != keys[i+1]) {
+               sqSizes += (long) run * run;
+               run = 0;
+            }
+         }
+
+         double seen = (double) sqSizes / n;
+         if (seen < 1.5 * target && seen > target / 1.5) break;
+
+         double next = Math.max(1, size * Math.sqrt(target / seen));
+         if (next == size) break;
+         size = next;
+      }
+
+      return size;
+   }
+
+   // Single-linkage clustering at alpha: the components of the graph of valid pairs,
+   // by a union-find over the flat grid. Nothing is sorted or queued. Clusters are
+   // numbered from 0 in the order of their first point in the input
+   private void findClusters () {
+
+      int[] xs = new int[vCount], ys = new int[vCount];
+      for (Point p : points) {
+         xs[p.id] = p.xPos;
+         ys[p.id] = p.yPos;
+      }
+
+      GridIndex index = new GridIndex(xs, ys, vCount, alpha, options.threads);
+      UnionFind sets = index.pointComponents(maxSqDist);
+
+      // Root of each point id, duplicates taking the one of their representative
+      int duplicateCount = duplicates != null ? duplicates.size() : 0;
+      int[] root = new int[vCount + duplicateCount];
+
+      for (int i = 0; i < vCount; i++) root[index.order[i]] = sets.find(i);
+      for (int k = 0; k < duplicateCount; k++) root[vCount + k] = root[duplicateOf[k]];
+
+      int[] byLine = new int[root.length];
+      for (int id = 0; id < root.length; id++) byLine[inputIndex[id]] = root[id];
+
+      int[] label = new int[vCount];
+      Arrays.fill(label, -1);
+      clusterOf = new int[root.length];
+      clusterCount = 0;
+
+      for (int line = 0; line < byLine.length; line++) {
+         if (label[byLine[line]] < 0) label[byLine[line]] = clusterCount++;
+         clusterOf[line] = label[byLine[line]];
+      }
+   }
+
+   // Cluster of each point by input line, or null if -clusters was not used
+   public int[] clusters () {
+      return clusterOf;
+   }
+
+   public int clusterCount () {
+      return clusterCount;
+   }
+
+   private void initTree () {
+      int duplicateCount = duplicates != null ? duplicates.size() : 0;
+
+      treeFrom    = new int[Math.max(0, vCount + duplicateCount - 1)];
+      treeTo      = new int[treeFrom.length];
+      treeWeight  = new double[treeFrom.length];
+      treeSqDist  = new long[treeFrom.length];
+      treeSize    = 0;
+      totalWeight = 0.0;
+   }
+
+   // Adds edge uv, whose squared length (under the distance the engine runs on) is sqDist
+   private void addTreeEdge (Point u, Point v, long sqDist) {
+
+      double weight = Math.sqrt(sqDist);
+
+      treeFrom[treeSize] = u.id;
+      treeTo[treeSize] = v.id;
+      treeSqDist[treeSize] = sqDist;
+      treeWeight[treeSize] = weight;
+      treeSize++;
+      totalWeight += weight;
+
+      // If in visual mode, show each edge being added
+      if (visual) {
+         StdDraw.setPenColor(StdDraw.LINES);
+         StdDraw.setPenRadius(0.006);
+         StdDraw.line(u.xPos, u.yPos, v.xPos, v.yPos);
+
+         StdDraw.show();
+         StdDraw.pause(timeStep);
+      }
+   }
+
+   private void showOutcome () {
+
+      if (treeSize == vCount - 1) {
+         StdDraw.setPenColor(StdDraw.GREEN);
+         StdDraw.text(maxCoord / 2.0, maxCoord * 1.02, "SUCCESS: a-EMST Computed");
+      } else {
+         StdDraw.setPenColor(StdDraw.RED);
+         StdDraw.text(maxCoord / 2.0, maxCoord * 1.02, "FAIL: Alpha too small");
+      }
+
+      StdDraw.show();
+   }
+   
+   // Below this size the queue is never compacted: a rebuild would cost more than it saves
+   private static final int MIN_PRUNE_SIZE = 1024;
+
+   // Drops every stale entry and rebuilds the queue. With pruneBest, only the
+   // shortest edge towards each outside point is kept, which is all Prim will
+   // ever use (the queue then behaves like the eager variant until it grows again)
+   private void compactQueue () {
+
+      long before = minPQ.size();
+
+      minPQ.retain((key, from, to) -> !points.get(to).inEMST);
+
+      if (options.pruneBest) {
+
+         if (bestKey == null) bestKey = new long[vCount];
+
+         minPQ.retain((key, from, to) -> {
+            if (pendingTo[to] > 0) {
+               bestKey[to] = Long.MAX_VALUE;
+               pendingTo[to] = 0;
+            }
+            bestKey[to] = Math.min(bestKey[to], key);
+            return true;
+         });
+
+         minPQ.retain((key, from, to) -> {
+            if (pendingTo[to] > 0 || key != bestKey[to]) return false;
+            pendingTo[to] = 1;
+            return true;
+         });
+      }
+
+      purgedCount += before - minPQ.size();
+      compactions++;
+      staleCount = 0;
+   }
+
+   // Queue counters, for -stats
+   public String statistics () {
+      return (duplicates != null ? "duplicates collapsed: " + duplicates.size() + ", " : "")
+           + "candidates pushed: " + pushedCount + ", stale popped: " + stalePopped
+           + ", stale purged: " + purgedCount + " in " + compactions + " compactions"
+           + ", cells skipped: " + cellsSkipped + ", cells entirely within alpha: " + cellsWithin
+           + ", speculative edges rejected: " + speculationRejected + ", frontier phases: " + frontierPhases;
+   }
+
+   // Determines p's cell in the grid and computes its distances from the points
+   // in neighboring cells (the only ones that may fall within the desired distance)
+   private void visitPointNeighborhood(Point p) {
+
+      p.inEMST = true;
+
+      p.cell.inEMST[p.slot] = true;
+
+      scan.run(p);
+      pushCandidates(scan);
+   }
+
+   // Adds the valid edges found by a scan to the PQ, except those towards points
+   // that have joined the EMST since the scan ran
+   private void pushCandidates (NeighborhoodScan s) {
+
+      for (int h = 0; h < s.hits; h++) {
+
+         int nb = s.ids[h];
+         if (points.get(nb).inEMST) continue;
+
+         minPQ.push(s.sqDists[h], s.from, nb);
+         pendingTo[nb]++;
+         pushedCount++;
+      }
+
+      cellsSkipped += s.skipped;
+      cellsWithin  += s.within;
+      s.skipped = s.within = 0;
+   }
+
+   // Finds the valid edges from a point to the points of its neighborhood that are
+   // not in the EMST. It only reads the grid, so several scans (each with its own
+   // buffers and kernel) can run at the same time
+   private class NeighborhoodScan {
+
+      final NeighborKernel cellKernel;
+      final int[] slots = new int[largestCell];          // Kernel output, for one cell
+      final long[] cellSqDists = new long[largestCell];
+
+      int from;                                          // Results: edges from -> ids[h]
+      int[] ids = new int[16];
+      long[] sqDists = new long[16];
+      int hits;
+      long skipped, within;                              // Cell pruning counters
+
+      NeighborhoodScan (NeighborKernel k) {
+         cellKernel = k;
+      }
+
+      void run (Point p) {
+
+         from = p.id;
+         hits = 0;
+
+         int xCell = cellCoord(p.xPos);
+         int yCell = cellCoord(p.yPos);
+
+         // Check the cells of the stencil
+         for (int s = 0; s < stencil.size; s++) {
+
+            Cell neighborCell = grid.get(GridIndex.key(xCell + stencil.xShift[s], yCell + stencil.yShift[s]));
+            if (neighborCell == null) continue;
+
+            // Whole cell farther than alpha: nothing to do. Whole cell within alpha:
+            // the per-point distance check can be skipped
+            if (neighborCell.minSqDist(p.xPos, p.yPos) > maxSqDist) {
+               skipped++;
+               continue;
+            }
+
+            boolean allWithin = neighborCell.maxSqDist(p.xPos, p.yPos) <= maxSqDist;
+            if (allWithin) within++;
+
+            // The kernel skips the points already in the EMST, and only reports valid edges
+            int found = cellKernel.scan(p.xPos, p.yPos, neighborCell.xs, neighborCell.ys, neighborCell.inEMST,
+                                        neighborCell.size, maxSqDist, allWithin, slots, cellSqDists);
+
+            if (hits + found > ids.length) {
+               ids = Arrays.copyOf(ids, Math.max(2 * ids.length, hits + found));
+               sqDists = Arrays.copyOf(sqDists, ids.length);
+            }
+
+            for (int h = 0; h < found; h++) {
+               int nb = neighborCell.ids[slots[h]];
+               if (nb == p.id) continue;
+               ids[hits] = nb;
+               sqDists[hits] = cellSqDists[h];
+               hits++;
+            }
+         }
+      }
+   }
+
+// --------------------------------------- SUPPORT METHODS ---------------------------------------
+
+   // Reads points from the input file
+   private void parsePoints (String filePath) {
+
+      try (Scanner fileScan = new Scanner(new FileReader(filePath)) ) {
+
+         while (fileScan.hasNextLine()) {
+            
+            Scanner pointScan = new Scanner(fileScan.nextLine());
+            pointScan.useDelimiter("[(),\\s]");
+            
+            points.add( new Point(points.size(), pointScan.nextInt(), pointScan.nextInt()) );
+            
+            pointScan.close();
+         }
+
+         timeStep = (int)Math.log10(points.size());
+
+      } catch (Exception e) { 
+         System.err.println(e);
+      }
+
+   }
+
+   // Sorts the points along a space-filling curve, so that points close in the plane
+   // are also close in the list (and, being reallocated in that order, on the heap).
+   // Neighbor cell scans then touch far fewer cache lines on large inputs
+   private void reorderPoints (Order order) {
+
+      long[] keys = curveKeys(order);
+      int[] perm = new int[vCount];
+
+      for (int i = 0; i < vCount; i++) perm[i] = i;
+
+      sortByKey(keys, perm, vCount);
+
+      ArrayList<Point> sorted = new ArrayList<>(vCount);
+
+      for (int i = 0; i < vCount; i++) {
+         Point p = points.get(perm[i]);
+         sorted.add(new Point(i, p.xPos, p.yPos));
+         inputIndex[i] = perm[i];
+      }
+
+      points = sorted;
+   }
+
+   // Position of every point along the Hilbert or Z-order curve over the bounding box, by id
+   private long[] curveKeys (Order order) {
+
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+      for (Point p : points) {
+         minX = Math.min(minX, p.xPos);
+         minY = Math.min(minY, p.yPos);
+         maxX = Math.max(maxX, p.xPos);
+         maxY = Math.max(maxY, p.yPos);
+      }
+
+      long extent = Math.max((long) maxX - minX, (long) maxY - minY);
+      int bits = Math.max(1, 64 - Long.numberOfLeadingZeros(extent));
+
+      long[] keys = new long[vCount];
+
+      for (Point p : points) {
+         int x = p.xPos - minX;
+         int y = p.yPos - minY;
+
+         keys[p.id] = order == Order.HILBERT ? hilbertIndex(x, y, bits) : mortonIndex(x, y);
+      }
+
+      return keys;
+   }
+
+   // Sets aside every point whose coordinates already appeared, so that the engines
+   // only see unique points. A stable sort by coordinates groups the copies, the
+   // first one of each group stays as the representative, and the others are
+   // renumbered after the unique points
+   private void collapseDuplicates () {
+
+      long[] keys = new long[vCount];
+      int[] perm = new int[vCount];
+
+      for (int i = 0; i < vCount; i++) {
+         Point p = points.get(i);
+         keys[i] = GridIndex.key(p.xPos, p.yPos);
+         perm[i] = i;
+      }
+
+      sortByKey(keys, perm, vCount);
+
+      // Representative of each point (itself if it is unique)
+      int[] rep = new int[vCount];
+
+      for (int i = 0; i < vCount; i++) {
+         rep[perm[i]] = i > 0 && keys[i] == keys[i-1] ? rep[perm[i-1]] : perm[i];
+      }
+
+      ArrayList<Point> unique = new ArrayList<>();
+      int[] newId = new int[vCount];
+
+      for (Point p : points) {
+         if (rep[p.id] != p.id) continue;
+         newId[p.id] = unique.size();
+         unique.add(new Point(unique.size(), p.xPos, p.yPos));
+      }
+
+      duplicates = new ArrayList<>(vCount - unique.size());
+      duplicateOf = new int[vCount - unique.size()];
+      int[] newIndex = new int[vCount];
+
+      for (Point p : points) {
+
+         if (rep[p.id] == p.id) {
+            newIndex[newId[p.id]] = inputIndex[p.id];
+            continue;
+         }
+
+         int id = unique.size() + duplicates.size();
+         duplicateOf[duplicates.size()] = newId[rep[p.id]];
+         duplicates.add(new Point(id, p.xPos, p.yPos));
+         newIndex[id] = inputIndex[p.id];
+      }
+
+      points = unique;
+      inputIndex = newIndex;
+      vCount = unique.size();
+   }
+
+   // Puts the duplicates back after the engine has run: each one hangs off its
+   // representative with a zero-weight edge, which is always valid (even if the
+   // unique points do not span). They are not drawn in visual mode
+   private void expandDuplicates () {
+
+      boolean connect = maxSqDist >= 0;
+
+      for (int k = 0; k < duplicates.size(); k++) {
+
+         Point d = duplicates.get(k);
+         points.add(d);
+
+         if (connect) {
+            treeFrom[treeSize] = duplicateOf[k];
+            treeTo[treeSize] = d.id;
+            treeWeight[treeSize] = 0.0;
+            treeSqDist[treeSize] = 0;
+            treeSize++;
+         }
+      }
+
+      vCount = points.size();
+   }
+
+   // Position of (x, y) along the Hilbert curve filling a 2^bits x 2^bits square
+   static long hilbertIndex (long x, long y, int bits) {
+
+      long d = 0;
+
+      for (long s = 1L << (bits - 1); s > 0; s >>= 1) {
+
+         int rx = (x & s) != 0 ? 1 : 0;
+         int ry = (y & s) != 0 ? 1 : 0;
+
+         d += s * s * ((3 * rx) ^ ry);
+
+         // Rotate the quadrant so that the curve stays continuous
+         if (ry == 0) {
+            if (rx == 1) {
+               x = s - 1 - x;
+               y = s - 1 - y;
+            }
+            long t = x;
+            x = y;
+            y = t;
+         }
+      }
+
+      return d;
+   }
+
+   // Z-order: interleaves the bits of x and y
+   static long mortonIndex (int x, int y) {
+      return spreadBits(x) | (spreadBits(y) << 1);
+   }
+
+   private static long spreadBits (int v) {
+
+      long x = v & 0xFFFFFFFFL;
+
+      x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+      x = (x | (x << 8))  & 0x00FF00FF00FF00FFL;
+      x = (x | (x << 4))  & 0x0F0F0F0F0F0F0F0FL;
+      x = (x | (x << 2))  & 0x3333333333333333L;
+      x = (x | (x << 1))  & 0x5555555555555555L;
+
+      return x;
+   }
+
+   // Cells of side alpha / k, with the smallest k that brings them down to the -cell
+   // size: a stencil of k rings around a point's cell then covers its alpha-disk
+   // (without the corners out of reach). Alpha-wide cells and a 3 x 3 stencil
+   // unless -cell asks for smaller ones
+   private void setCellSize () {
+
+      double limit = options.cellSize;
+
+      if (limit < 0) {
+
+         int[] xs = new int[vCount], ys = new int[vCount];
+         for (Point p : points) {
+            xs[p.id] = p.xPos;
+            ys[p.id] = p.yPos;
+         }
+
+         limit = tunedCellSize(xs, ys, vCount, PRIM_CELL_POINTS);
+      }
+
+      int rings = limit > 0 && limit < alpha ? (int) Math.min(MAX_STENCIL_RINGS, Math.ceil(alpha / limit)) : 1;
+
+      cellSize = alpha / rings;
+      if (cellSize * rings < alpha) cellSize = Math.nextUp(cellSize);
+
+      stencil = new Stencil(rings, cellSize, maxSqDist);
+   }
+
+   private static final int MAX_STENCIL_RINGS = 16;
+
+   // Construct the grid. Points in the same cell are mapped in the same bucket
+   private void fillGrid () {
+
+      if (options.threads > 1) {
+         fillGridParallel();
+         return;
+      }
+
+      largestCell = 0;
+
+      for (Point p : points) {
+         long cellKey = GridIndex.key(cellCoord(p.xPos), cellCoord(p.yPos));
+
+         Cell cell = grid.get(cellKey);
+         if (cell == null) grid.put(cellKey, cell = new Cell());
+         cell.add(p);
+
+         largestCell = Math.max(largestCell, cell.size);
+      }
+   }
+
+   // Same grid, built on several threads: the points are sorted by cell into a
+   // flat GridIndex (per-thread histograms, prefix sums and a scatter), then every
+   // thread cuts the cells of its slice out of it. Only the map insertions, one
+   // per cell, are sequential. Cells hold their points in input order, as above
+   private void fillGridParallel () {
+
+      int[] xs = new int[vCount], ys = new int[vCount];
+      for (Point p : points) {
+         xs[p.id] = p.xPos;
+         ys[p.id] = p.yPos;
+      }
+
+      GridIndex index = new GridIndex(xs, ys, vCount, cellSize, options.threads);
+
+      Cell[] cells = new Cell[index.cellCount];
+      int slices = Math.max(1, Math.min(options.threads, index.cellCount));
+
+      parallelFor(slices, s -> {
+         for (int c = sliceStart(s, slices, cells.length); c < sliceStart(s + 1, slices, cells.length); c++) {
+            cells[c] = new Cell(index, c, points);
+         }
+      });
+
+      largestCell = 0;
+
+      for (int c = 0; c < cells.length; c++) {
+         grid.put(index.cellKeys[c], cells[c]);
+         largestCell = Math.max(largestCell, cells[c].size);
+      }
+   }
+
+   private int cellCoord (int coord) {
+      return (int) Math.floor(coord / cellSize);
+   }
+
+   // A kernel of the same kind as the main one, for another thread
+   private NeighborKernel newKernel () {
+      return kernel instanceof ScalarKernel ? new ScalarKernel() : loadSimdKernel();
+   }
+
+   // The Vector API kernel lives in its own file, compiled and run with
+   // --add-modules jdk.incubator.vector. It is loaded by name so that EMST
+   // itself still builds without the incubator module
+   private static NeighborKernel loadSimdKernel () {
+      try {
+         return (NeighborKernel) Class.forName("SimdNeighborKernel").getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+         System.err.println("SIMD kernel not available (" + e + "), using the scalar one");
+         return new ScalarKernel();
+      }
+   }
+
+   // Setup the window for visual mode
+   private void setupVisuals () {
+      maxCoord = 0;
+
+      for (Point p : points ) {
+         if (p.xPos > maxCoord ) maxCoord = p.xPos;
+         if (p.yPos > maxCoord ) maxCoord = p.yPos;
+      }
+      
+      StdDraw.setCanvasSize(1200,1200);
+
+      StdDraw.setXscale(-maxCoord * 0.05, maxCoord * 1.05);
+      StdDraw.setYscale(-maxCoord * 0.05, maxCoord * 1.05);
+
+      StdDraw.enableDoubleBuffering();
+
+      StdDraw.clear(StdDraw.BG);
+
+      StdDraw.setPenRadius(0.010);
+      StdDraw.setPenColor(StdDraw.FG);
+
+      for (Point p : points) {
+         StdDraw.point(p.xPos, p.yPos);
+      }
+
+      StdDraw.show();
+   }
+
+   // Output information to terminal (for visual mode off)
+   @Override
+   public String toString () {
+      
+      if (treeSize < vCount-1) {
+         return "FAIL";
+      }
+
+      String outStr = String.format(java.util.Locale.US, "%.2f", totalWeight);
+
+      if (vCount <= 10) {
+         for (Edge e : treeEdges()) {
+            outStr = outStr + "\n" +  e;
+         }
+      }
+      
+      return outStr;
+   }
+
+   // Tree edges in the order they were added (built on demand from the primitive arrays)
+   public ArrayList<Edge> treeEdges () {
+
+      ArrayList<Edge> out = new ArrayList<>(treeSize);
+
+      for (int i = 0; i < treeSize; i++) {
+         out.add(new Edge(points.get(treeFrom[i]), points.get(treeTo[i]), treeWeight[i]));
+      }
+
+      return out;
+   }
+
+   // Tree edges as pairs of line numbers of the input file, whatever order the points were processed in
+   public int[][] treeEdgeIndices () {
+
+      int[][] out = new int[treeSize][];
+
+      for (int i = 0; i < treeSize; i++) {
+         out[i] = new int[] {inputIndex[treeFrom[i]], inputIndex[treeTo[i]]};
+      }
+
+      return out;
+   }
+
+   // Single-linkage dendrogram of the tree, in the layout of scipy's linkage matrix:
+   // row i merges clusters out[i][0] < out[i][1] at distance out[i][2] into cluster
+   // n + i of out[i][3] points, where clusters below n are the points by input line.
+   // The edges are sorted by the integer squared weight they were accepted with (the
+   // mutual reachability distance with -mutual; ties in the order they were added)
+   // and merged with a union-find in the same pass. On FAIL there are
+   // only as many rows as edges, and the last clusters are never merged: Kruskal and
+   // Yao leave the whole minimum spanning forest, Prim only the tree of its first point
+   public double[][] linkage () {
+
+      long[] keys = new long[treeSize];
+      int[] edges = new int[treeSize];
+
+      for (int i = 0; i < treeSize; i++) {
+         keys[i] = treeSqDist[i];
+         edges[i] = i;
+      }
+
+      sortByKey(keys, edges, treeSize);
+
+      UnionFind sets = new UnionFind(vCount);
+      int[] clusterOfRoot = new int[vCount];            // Dendrogram cluster of each set, by its root
+      for (int id = 0; id < vCount; id++) clusterOfRoot[id] = inputIndex[id];
+
+      double[][] out = new double[treeSize][];
+
+      for (int row = 0; row < treeSize; row++) {
+
+         int e = edges[row];
+         int a = clusterOfRoot[sets.find(treeFrom[e])];
+         int b = clusterOfRoot[sets.find(treeTo[e])];
+
+         sets.union(treeFrom[e], treeTo[e]);
+         clusterOfRoot[sets.find(treeFrom[e])] = vCount + row;
+
+         out[row] = new double[] {Math.min(a, b), Math.max(a, b), treeWeight[e], sets.size(treeFrom[e])};
+      }
+
+      return out;
+   }
+
+   // Condensed cluster tree of HDBSCAN over the single-linkage dendrogram. Walking
+   // down from the root, a split where both sides have at least minClusterSize
+   // points gives two new clusters; otherwise the small sides are points falling out
+   // of the cluster, which lives on in the large side, if any. Lambda is 1 / distance.
+   // The dendrogram is walked breadth-first, as hdbscan does, so that clusters get
+   // the same labels and the rows come in the same order
+   public CondensedTree condensedTree (int minClusterSize) {
+
+      if (minClusterSize < 2) throw new IllegalArgumentException("minClusterSize < 2");
+
+      double[][] z = linkage();
+      int n = vCount;
+      CondensedTree tree = new CondensedTree(n);
+
+      int[] queue = new int[2 * n];                     // Pending (dendrogram node, condensed cluster) pairs
+      int[] nodes = new int[2 * n];                     // Nodes left to visit under a small side
+      int head = 0, tail = 0;
+
+      // Nodes that no row merges are roots, one for each tree of a forest
+      boolean[] merged = new boolean[n + z.length];
+      for (double[] row : z) merged[(int) row[0]] = merged[(int) row[1]] = true;
+
+      for (int node = n + z.length - 1; node >= n; node--) {
+         if (!merged[node]) {
+            queue[tail++] = node;
+            queue[tail++] = n + tree.clusterCount++;
+         }
+      }
+
+      while (head < tail) {
+
+         int node = queue[head++];
+         int cluster = queue[head++];
+
+         double[] row = z[node - n];
+         double lambda = 1 / row[2];
+         int[] children = {(int) row[0], (int) row[1]};
+         int[] sizes = new int[2];
+         for (int k = 0; k < 2; k++) sizes[k] = children[k] < n ? 1 : (int) z[children[k] - n][3];
+
+         boolean split = sizes[0] >= minClusterSize && sizes[1] >= minClusterSize;
+
+         for (int k = 0; k < 2; k++) {
+
+            if (split) {
+               int label = n + tree.clusterCount++;
+               tree.add(cluster, label, lambda, sizes[k]);
+               queue[tail++] = children[k];
+               queue[tail++] = label;
+            } else if (sizes[k] >= minClusterSize) {
+               queue[tail++] = children[k];
+               queue[tail++] = cluster;
+            } else {
+
+               // Every point under the small side falls out here
+               int first = 0, last = 0;
+               nodes[last++] = children[k];
+
+               while (first < last) {
+                  int m = nodes[first++];
+                  if (m < n) {
+                     tree.add(cluster, m, lambda, 1);
+                  } else {
+                     nodes[last++] = (int) z[m - n][0];
+                     nodes[last++] = (int) z[m - n][1];
+                  }
+               }
+            }
+         }
+      }
+
+      return tree;
+   }
+
+   // Rows (parent, child, lambda, child size) of a condensed tree, as in the hdbscan
+   // library: clusters are numbered from n (the root), points by input line below n
+   static class CondensedTree {
+
+      int[] parent, child, childSize;
+      double[] lambda;
+      int size;
+      int clusterCount;
+
+      CondensedTree (int n) {
+         parent = new int[2 * n];
+         child = new int[2 * n];
+         childSize = new int[2 * n];
+         lambda = new double[2 * n];
+      }
+
+      void add (int p, int c, double l, int s) {
+         parent[size] = p;
+         child[size] = c;
+         lambda[size] = l;
+         childSize[size] = s;
+         size++;
+      }
+
+      @Override
+      public String toString () {
+
+         StringBuilder out = new StringBuilder();
+
+         for (int i = 0; i < size; i++) {
+            out.append(parent[i]).append(' ').append(child[i]).append(' ')
+               .append(lambda[i]).append(' ').append(childSize[i]).append('\n');
+         }
+
+         return out.toString();
+      }
+   }
+
+   // Batch k-nearest-neighbor query over the points: for each (xs[q], ys[q]), the k
+   // nearest points by input line, nearest first. The flat grid of the queries is
+   // built on the first one, with cells of a few points each as in the Yao engine,
+   // and kept for the next ones; the queries of a batch run on the -threads workers
+   public Neighbors nearestNeighbors (int[] xs, int[] ys, int k) {
+
+      if (xs.length != ys.length || k < 0) throw new IllegalArgumentException("invalid query");
+
+      return byInputLine(queryIndex().nearest(xs, ys, xs.length, k, options.threads));
+   }
+
+   // Batch radius query: for each (xs[q], ys[q]), the points within radius of it by
+   // input line, with the same integer distance check as alpha
+   public Neighbors withinRadius (int[] xs, int[] ys, double radius) {
+
+      if (xs.length != ys.length) throw new IllegalArgumentException("invalid query");
+
+      return byInputLine(queryIndex().within(xs, ys, xs.length, maxSquaredDistance(radius), options.threads));
+   }
+
+   private GridIndex queryIndex () {
+
+      if (queries == null) {
+
+         int[] xs = new int[points.size()], ys = new int[points.size()];
+         for (Point p : points) {
+            xs[p.id] = p.xPos;
+            ys[p.id] = p.yPos;
+         }
+
+         queries = new GridIndex(xs, ys, xs.length, tunedCellSize(xs, ys, xs.length, FINE_CELL_POINTS), options.threads);
+      }
+
+      return queries;
+   }
+
+   private Neighbors byInputLine (Neighbors found) {
+      for (int i = 0; i < found.ids.length; i++) found.ids[i] = inputIndex[found.ids[i]];
+      return found;
+   }
+
+   // Results of a batch query in primitive arrays: the points found for query q are
+   // ids[start[q]] ... ids[start[q+1] - 1], at squared distances sqDist[...]
+   public static class Neighbors {
+
+      public final int[] start, ids;
+      public final long[] sqDist;
+
+      Neighbors (int[] start, int[] ids, long[] sqDist) {
+         this.start = start;
+         this.ids = ids;
+         this.sqDist = sqDist;
+      }
+
+      public int count (int q) {
+         return start[q + 1] - start[q];
+      }
+
+      public double distance (int i) {
+         return Math.sqrt(sqDist[i]);
+      }
+   }
+
+   // Euclidean distance 
+   private static double euclideanDist (Point a, Point b) {
+
+      double xDiff = a.xPos - b.xPos;
+      double yDiff = a.yPos - b.yPos;
+
+      return Math.sqrt(xDiff * xDiff + yDiff * yDiff);
+   }
+
+   // Largest integer squared distance d with sqrt(d) <= alpha, so that integer
+   // distance checks accept exactly the same edges as euclideanDist(a, b) <= alpha
+   static long maxSquaredDistance (double alpha) {
+
+      if (alpha < 0) return -1;
+
+      long limit = (long) Math.floor(alpha * alpha);
+
+      while (limit > 0 && Math.sqrt(limit) > alpha) limit--;
+      while (Math.sqrt(limit + 1) <= alpha) limit++;
+
+      return limit;
+   }
+
+   // Memory estimates of the budget mode. The number of candidate edges is estimated
+   // by sampling: every step-th point in cell order (so each cell is sampled in
+   // proportion to its size) counts its neighbors within alpha exactly on a flat
+   // grid. Footprints are upper bounds from the array layouts of each engine, on
+   // top of the points, which are already loaded
+   static class Plan {
+
+      long budget;
+      long points, sampled;
+      double neighbors;               // Mean number of points within alpha of a point
+      long candidates;                // Estimated pairs within alpha
+      long[] bytes = new long[Engine.values().length];
+      boolean dense;                  // Cells dense enough for the Yao engine to be the fastest
+      Engine choice;                  // Fastest engine that fits, null if none
+
+      Engine[] order () {
+         return dense ? DENSE_PLAN_ORDER : PLAN_ORDER;
+      }
+
+      @Override
+      public String toString () {
+
+         StringBuilder out = new StringBuilder(String.format(java.util.Locale.US,
+               "plan: %d points, %.1f neighbors per point (%d sampled), ~%d candidate edges", points, neighbors, sampled, candidates));
+
+         for (Engine e : order()) {
+            out.append(String.format(java.util.Locale.US, "\n   %-7s ~%,d MB", e.name().toLowerCase(), bytes[e.ordinal()] >> 20));
+         }
+
+         out.append(String.format(java.util.Locale.US, "\n   budget  %,d MB: ", budget >> 20));
+         out.append(choice == null ? "no engine fits" : choice.name().toLowerCase());
+
+         return out.toString();
+      }
+   }
+
+   // Engines from the fastest, as measured on the example inputs and on uniform
+   // inputs of up to 1M points. Eager Prim also has the smallest footprint, so with
+   // sparse cells the plan is only an admission check: eager runs whenever anything
+   // fits, and the estimates of the others are just reported. When the cells are
+   // dense the Yao engine is the fastest (see DENSE_SCAN_WORK) but needs about 9
+   // candidates per point, so a tight budget falls back to eager Prim
+   private static final Engine[] PLAN_ORDER = { Engine.EAGER, Engine.KRUSKAL, Engine.PRIM, Engine.YAO };
+   private static final Engine[] DENSE_PLAN_ORDER = { Engine.YAO, Engine.EAGER, Engine.KRUSKAL, Engine.PRIM };
+
+   private static final int PLAN_SAMPLE = 4096;
+
+   private Plan plan (long budget) {
+
+      Plan plan = new Plan();
+      plan.budget = budget;
+      plan.points = vCount;
+
+      int[] xs = new int[vCount], ys = new int[vCount];
+      for (Point p : points) {
+         xs[p.id] = p.xPos;
+         ys[p.id] = p.yPos;
+      }
+
+      GridIndex index = new GridIndex(xs, ys, vCount, alpha);
+      int step = Math.max(1, vCount / PLAN_SAMPLE);
+      long found = 0;
+
+      for (int i = 0; i < vCount; i += step) {
+
+         int x = index.sortedX[i], y = index.sortedY[i];
+         int xCell = index.cellCoord(x), yCell = index.cellCoord(y);
+
+         for (int xShift = -1; xShift <= 1; xShift++) {
+            for (int yShift = -1; yShift <= 1; yShift++) {
+
+               int c = index.cellIndex(xCell + xShift, yCell + yShift);
+               if (c < 0) continue;
+
+               for (int j = index.cellStart[c]; j < index.cellStart[c+1]; j++) {
+                  long xDiff = x - index.sortedX[j];
+                  long yDiff = y - index.sortedY[j];
+                  if (j != i && xDiff * xDiff + yDiff * yDiff <= maxSqDist) found++;
+               }
+            }
+         }
+
+         plan.sampled++;
+      }
+
+      plan.neighbors = (double) found / plan.sampled;
+      plan.candidates = (long) Math.ceil(plan.neighbors * vCount / 2);
+
+      long n = vCount, m = plan.candidates;
+      long grid = 24 * n + 96 * (long) index.cellCount;          // Cell arrays (with growth slack) and map entries
+      long flatGrid = 20 * n + 28 * (long) index.cellCount;      // GridIndex: order, coordinates, cell keys, starts, boxes
+
+      // Kruskal: candidate list (up to twice its size while growing) plus the radix sort buffers
+      plan.bytes[Engine.KRUSKAL.ordinal()] = flatGrid + 2 * 16 * m + 24 * m + 8 * n;
+      // Lazy Prim: every candidate may be queued at once, in a heap that grows by doubling
+      plan.bytes[Engine.PRIM.ordinal()] = grid + 2 * 16 * m + 4 * n;
+      // Eager Prim: an indexed heap over the points
+      plan.bytes[Engine.EAGER.ordinal()] = grid + 24 * n;
+      // Yao: a fine grid with about 3 points per cell, up to 9 candidates per point
+      // (doubled while growing) and their sort
+      plan.bytes[Engine.YAO.ordinal()] = 34 * n + 9 * (2 * 16 + 24) * n;
+
+      // The scans of Prim compare each point with the 9 cells around it, which hold
+      // about 9 / pi times its neighbors within alpha
+      plan.dense = plan.neighbors * 9 / Math.PI > DENSE_SCAN_WORK;
+
+      for (Engine e : plan.order()) {
+         if (plan.bytes[e.ordinal()] <= budget) {
+            plan.choice = e;
+            break;
+         }
+      }
+
+      return plan;
+   }
+
+   // Estimates of the budget mode, or null if it was not used
+   public Plan plan () {
+      return plan;
+   }
+
+   // Feasibility pre-check: occupied alpha-cells are joined when they are neighbors
+   // and their bounding boxes are within alpha. Every valid edge joins two cells
+   // joined this way, so if the cells fall apart in several components, so does
+   // every forest of valid edges and the answer is FAIL without running an engine.
+   // A single component is not conclusive: the points of a cell need not be within
+   // alpha of each other. The smallest components are reported, as the places
+   // where the gaps are
+   static class Feasibility {
+
+      long cells;
+      int components;
+      int[] smallSizes;               // Points of the smallest components, ascending
+      int[] smallLines;               // Input line of one point of each
+
+      boolean fails () {
+         return components > 1;
+      }
+
+      @Override
+      public String toString () {
+
+         if (!fails()) {
+            return String.format(java.util.Locale.US, "check: %d occupied cells, connected (not conclusive)", cells);
+         }
+
+         StringBuilder out = new StringBuilder(String.format(java.util.Locale.US,
+               "check: %d occupied cells in %d components: FAIL", cells, components));
+
+         for (int i = 0; i < smallSizes.length; i++) {
+            out.append(String.format(java.util.Locale.US, "\n   component of %d point%s, at input line %d",
+                                     smallSizes[i], smallSizes[i] == 1 ? "" : "s", smallLines[i]));
+         }
+
+         return out.toString();
+      }
+   }
+
+   private static final int CHECK_REPORTED = 5;
+
+   private Feasibility check () {
+
+      int[] xs = new int[vCount], ys = new int[vCount];
+      for (Point p : points) {
+         xs[p.id] = p.xPos;
+         ys[p.id] = p.yPos;
+      }
+
+      GridIndex index = new GridIndex(xs, ys, vCount, alpha, options.threads);
+      UnionFind sets = index.cellComponents(maxSqDist);
+
+      Feasibility check = new Feasibility();
+      check.cells = index.cellCount;
+
+      // Points and one cell of each component, by root
+      int[] sizes = new int[index.cellCount];
+      int[] cellOf = new int[index.cellCount];
+
+      for (int c = 0; c < index.cellCount; c++) {
+         int root = sets.find(c);
+         if (sizes[root] == 0) {
+            check.components++;
+            cellOf[root] = c;
+         }
+         sizes[root] += index.cellStart[c+1] - index.cellStart[c];
+      }
+
+      if (!check.fails()) return check;
+
+      int[] roots = new int[check.components];
+      long[] bySize = new long[check.components];
+
+      for (int c = 0, k = 0; c < index.cellCount; c++) {
+         if (sets.find(c) == c) {
+            bySize[k] = sizes[c];
+            roots[k++] = c;
+         }
+      }
+
+      sortByKey(bySize, roots, roots.length);
+
+      int reported = Math.min(CHECK_REPORTED, roots.length);
+      check.smallSizes = new int[reported];
+      check.smallLines = new int[reported];
+
+      for (int i = 0; i < reported; i++) {
+         check.smallSizes[i] = sizes[roots[i]];
+         check.smallLines[i] = inputIndex[index.order[index.cellStart[cellOf[roots[i]]]]];
+      }
+
+      return check;
+   }
+
+   // Result of the -check pre-check, or null if it was not run
+   public Feasibility feasibility () {
+      return check;
+   }
+
+   // Sorts the first n keys in ascending (signed) order, permuting values alongside.
+   // LSD radix sort on 16-bit digits: linear time and no boxing, which matters for
+   // the large edge and cell arrays. Digits that are equal for every key are skipped
+   static void sortByKey (long[] keys, int[] values, int n) {
+      sortByKey(keys, values, n, 1);
+   }
+
+   // Same sort on several threads. Each thread histograms and scatters its own slice
+   // of the input; the offsets are prefix sums taken digit by digit and then slice by
+   // slice, so the sort stays stable and the output is the same as with one thread
+   static void sortByKey (long[] keys, int[] values, int n, int threads) {
+
+      int slices = Math.max(1, Math.min(threads, n / MIN_SLICE));
+
+      long[] keyBuf = new long[n];
+      int[] valBuf = new int[n];
+      int[][] count = new int[slices][RADIX_DIGITS];
+
+      long[] sliceOr = new long[slices], sliceAnd = new long[slices];
+
+      parallelFor(slices, s -> {
+         long or = 0, and = -1;
+         for (int i = sliceStart(s, slices, n); i < sliceStart(s + 1, slices, n); i++) {
+            or  |= keys[i];
+            and &= keys[i];
+         }
+         sliceOr[s] = or;
+         sliceAnd[s] = and;
+      });
+
+      long or = 0, and = -1;
+      for (int s = 0; s < slices; s++) {
+         or  |= sliceOr[s];
+         and &= sliceAnd[s];
+      }
+
+      long[] srcK = keys, dstK = keyBuf;
+      int[] srcV = values, dstV = valBuf;
+
+      for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+
+         // Skip digits where all the keys agree
+         if (!radixDigitVaries(or, and, shift)) continue;
+
+         long[] fromK = srcK, toK = dstK;
+         int[] fromV = srcV, toV = dstV;
+         int digit = shift;
+
+         parallelFor(slices, s -> {
+            Arrays.fill(count[s], 0);
+            for (int i = sliceStart(s, slices, n); i < sliceStart(s + 1, slices, n); i++) {
+               count[s][radixDigit(fromK[i], digit)]++;
+            }
+         });
+
+         radixOffsets(count);
+
+         parallelFor(slices, s -> {
+            for (int i = sliceStart(s, slices, n); i < sliceStart(s + 1, slices, n); i++) {
+               int pos = count[s][radixDigit(fromK[i], digit)]++;
+               toK[pos] = fromK[i];
+               toV[pos] = fromV[i];
+            }
+         });
+
+         srcK = toK; dstK = fromK;
+         srcV = toV; dstV = fromV;
+      }
+
+      if (srcK != keys) {
+         System.arraycopy(srcK, 0, keys, 0, n);
+         System.arraycopy(srcV, 0, values, 0, n);
+      }
+   }
+
+   // The steps of sortByKey that do not depend on where the keys are stored, shared
+   // with the sort of OffHeapEMST on native memory
+   static final int RADIX_BITS = 16;
+   static final int RADIX_DIGITS = 1 << RADIX_BITS;
+
+   // Digit of a key at the given shift, with the sign bit flipped so that signed
+   // keys come out in ascending order
+   static int radixDigit (long key, int shift) {
+      return (int) ((key ^ Long.MIN_VALUE) >>> shift & (RADIX_DIGITS - 1));
+   }
+
+   // Whether the digit at the given shift differs between keys whose bitwise OR and
+   // AND are or and and: if not, the pass over it can be skipped
+   static boolean radixDigitVaries (long or, long and, int shift) {
+      return ((or ^ and) >>> shift & (RADIX_DIGITS - 1)) != 0;
+   }
+
+   // Turns the digit counts of every slice into the first output position of each
+   // digit in that slice: digit by digit, then slice by slice, so the pass is stable
+   static void radixOffsets (int[][] count) {
+      for (int d = 0, sum = 0; d < RADIX_DIGITS; d++) {
+         for (int[] slice : count) {
+            int c = slice[d];
+            slice[d] = sum;
+            sum += c;
+         }
+      }
+   }
+
+   // Below this many items per thread, splitting the work is not worth it
+   static final int MIN_SLICE = 1 << 16;
+
+   // First item of slice s when n items are cut into equal slices
+   static int sliceStart (int s, int slices, int n) {
+      return (int) ((long) s * n / slices);
+   }
+
+   // Runs body(0), ..., body(tasks - 1), each on its own thread when there are
+   // several, and returns when all of them are done
+   static void parallelFor (int tasks, java.util.function.IntConsumer body) {
+
+      if (tasks == 1) {
+         body.accept(0);
+         return;
+      }
+
+      ExecutorService pool = Executors.newFixedThreadPool(tasks);
+      ArrayList<Future<?>> results = new ArrayList<>();
+
+      for (int t = 0; t < tasks; t++) {
+         int task = t;
+         results.add(pool.submit(() -> body.accept(task)));
+      }
+
+      pool.shutdown();
+
+      try {
+         for (Future<?> r : results) r.get();
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+// --------------------------------------- SUPPORT CLASSES ---------------------------------------
+
+   // Algorithm computing the EMST
+   enum Engine { AUTO, PRIM, EAGER, KRUSKAL, YAO }
+
+   // Processing order of the points
+   enum Order { INPUT, HILBERT, MORTON }
+
+   // Optional settings, filled from the command line flags
+   static class Options {
+      Engine engine = Engine.AUTO;      // AUTO: lazy Prim, or Yao when the cells are dense
+      Order order = Order.INPUT;
+      boolean simd = false;
+      boolean bucketQueue = false;
+      double pruneRatio = 0.5;          // Compact the queue when more than this fraction is stale
+      boolean pruneBest = false;
+      boolean dedup = false;            // Run the engines on unique coordinates only
+      int threads = 1;                  // Threads for the grid construction and the Prim engine
+      int frontiers = 0;                // Seeds of the multi-frontier Prim engine (0 or 1: single tree)
+      long budget = 0;                  // Memory budget in bytes: pick the engine from estimates (0: off)
+      double cellSize = 0;              // Largest side of the Prim grid cells (0: alpha, -1: tuned from the density)
+      double epsilon = 0;               // Approximation of the Yao engine (0: exact)
+      boolean approx = false;           // -approx given: run the Yao engine, whatever the epsilon
+      boolean check = false;            // Run the feasibility pre-check first
+      boolean clusters = false;         // Output single-linkage clusters at alpha instead of the EMST
+      boolean linkage = false;          // Output the single-linkage dendrogram of the EMST
+      int minClusterSize = 0;           // Output the condensed cluster tree with this minimum size (0: off)
+      int mutualK = 0;                  // Mutual reachability distance with core distances to the k-th neighbor (0: off)
+      boolean stats = false;
+   }
+
+   private static class Point {
+
+      int id;                 // Position in the points list
+      int xPos, yPos;
+      boolean inEMST;
+      Cell cell;              // Grid cell holding the point, and its position in there
+      int slot;
+
+      public Point (int i, int x, int y) {
+         id = i;
+         xPos = x;
+         yPos = y;
+         inEMST = false;
+      }
+
+      @Override
+      public String toString () {
+         return "(" + xPos + "," + yPos + ")";
+      }
+   }
+
+   // Cells of the grid by key: open addressing with linear probing over primitive
+   // keys, so a lookup in the scans allocates nothing (a HashMap<Long, Cell> boxes
+   // every key it is asked for). Kept at most half full
+   private static class CellTable {
+
+      private long[] keys = new long[16];
+      private Cell[] cells = new Cell[16];
+      private int size;
+
+      Cell get (long key) {
+
+         for (int slot = slot(key, keys.length); cells[slot] != null; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == key) return cells[slot];
+         }
+
+         return null;
+      }
+
+      // Adds a cell under a key that is not in the table yet
+      void put (long key, Cell cell) {
+
+         if (2 * (size + 1) > keys.length) grow();
+
+         int slot = slot(key, keys.length);
+         while (cells[slot] != null) slot = (slot + 1) & (keys.length - 1);
+
+         keys[slot] = key;
+         cells[slot] = cell;
+         size++;
+      }
+
+      int size () {
+         return size;
+      }
+
+      // Slots, for a scan of the table: valueAt is null on the empty ones
+      int capacity () {
+         return keys.length;
+      }
+
+      long keyAt (int slot) {
+         return keys[slot];
+      }
+
+      Cell valueAt (int slot) {
+         return cells[slot];
+      }
+
+      private void grow () {
+
+         long[] oldKeys = keys;
+         Cell[] oldCells = cells;
+
+         keys = new long[2 * oldKeys.length];
+         cells = new Cell[keys.length];
+
+         for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCells[i] == null) continue;
+
+            int slot = slot(oldKeys[i], keys.length);
+            while (cells[slot] != null) slot = (slot + 1) & (keys.length - 1);
+
+            keys[slot] = oldKeys[i];
+            cells[slot] = oldCells[i];
+         }
+      }
+
+      // Neighboring cells differ in the low bits of both halves of the key, so they
+      // are mixed before taking the top bits
+      private static int slot (long key, int capacity) {
+         return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(capacity)));
+      }
+   }
+
+   // Points of a grid cell. Coordinates and tree membership are also kept in
+   // primitive arrays, which is what the neighbor kernels work on.
+   // The bounding box of the points allows rejecting or accepting whole cells
+   private static class Cell {
+
+      int[] ids = new int[4];
+      int[] xs = new int[4], ys = new int[4];
+      boolean[] inEMST = new boolean[4];
+      int size;
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+      Cell () {}
+
+      // Cell c of a flat grid, whose point ids index the given list
+      Cell (GridIndex index, int c, ArrayList<Point> points) {
+
+         int from = index.cellStart[c];
+         size = index.cellStart[c+1] - from;
+
+         ids = Arrays.copyOfRange(index.order, from, from + size);
+         xs = Arrays.copyOfRange(index.sortedX, from, from + size);
+         ys = Arrays.copyOfRange(index.sortedY, from, from + size);
+         inEMST = new boolean[size];
+
+         minX = index.cellMinX[c];
+         minY = index.cellMinY[c];
+         maxX = index.cellMaxX[c];
+         maxY = index.cellMaxY[c];
+
+         for (int i = 0; i < size; i++) {
+            Point p = points.get(ids[i]);
+            p.cell = this;
+            p.slot = i;
+         }
+      }
+
+      void add (Point p) {
+
+         if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * size);
+            xs = Arrays.copyOf(xs, 2 * size);
+            ys = Arrays.copyOf(ys, 2 * size);
+            inEMST = Arrays.copyOf(inEMST, 2 * size);
+         }
+
+         p.cell = this;
+         p.slot = size;
+
+         ids[size] = p.id;
+         xs[size] = p.xPos;
+         ys[size] = p.yPos;
+         inEMST[size] = p.inEMST;
+         size++;
+
+         minX = Math.min(minX, p.xPos);
+         minY = Math.min(minY, p.yPos);
+         maxX = Math.max(maxX, p.xPos);
+         maxY = Math.max(maxY, p.yPos);
+      }
+
+      // Squared distance from (x, y) to the closest point of the bounding box
+      long minSqDist (int x, int y) {
+         long xDiff = Math.max(0, Math.max((long) minX - x, (long) x - maxX));
+         long yDiff = Math.max(0, Math.max((long) minY - y, (long) y - maxY));
+         return xDiff * xDiff + yDiff * yDiff;
+      }
+
+      // Squared distance from (x, y) to the farthest corner of the bounding box
+      long maxSqDist (int x, int y) {
+         long xDiff = Math.max(Math.abs((long) x - minX), Math.abs((long) x - maxX));
+         long yDiff = Math.max(Math.abs((long) y - minY), Math.abs((long) y - maxY));
+         return xDiff * xDiff + yDiff * yDiff;
+      }
+   }
+
+   // Finds the points of one cell that are not in the EMST yet and lie within
+   // alpha of (px, py). Writes their slots and squared distances, returns how many.
+   // When allWithin is set the whole cell is known to be within alpha
+   interface NeighborKernel {
+      int scan (int px, int py, int[] xs, int[] ys, boolean[] inEMST, int size,
+                long maxSqDist, boolean allWithin, int[] outSlots, long[] outSqDists);
+   }
+
+   // One point at a time
+   static class ScalarKernel implements NeighborKernel {
+
+      @Override
+      public int scan (int px, int py, int[] xs, int[] ys, boolean[] inEMST, int size,
+                       long maxSqDist, boolean allWithin, int[] outSlots, long[] outSqDists) {
+         return scanRange(px, py, xs, ys, inEMST, 0, size, allWithin ? Long.MAX_VALUE : maxSqDist, outSlots, outSqDists, 0);
+      }
+
+      // Also used by the SIMD kernel for the tail of a cell
+      static int scanRange (int px, int py, int[] xs, int[] ys, boolean[] inEMST, int from, int to,
+                            long maxSqDist, int[] outSlots, long[] outSqDists, int hits) {
+
+         for (int i = from; i < to; i++) {
+
+            if (inEMST[i]) continue;
+
+            long xDiff = xs[i] - px;
+            long yDiff = ys[i] - py;
+            long sqDist = xDiff * xDiff + yDiff * yDiff;
+
+            if (sqDist <= maxSqDist) {
+               outSlots[hits] = i;
+               outSqDists[hits] = sqDist;
+               hits++;
+            }
+         }
+
+         return hits;
+      }
+   }
+
+   // Min-priority queue of candidate edges (squared length, from, to)
+   interface EdgeQueue {
+      boolean isEmpty ();
+      int size ();
+      long minKey ();
+      int minFrom ();
+      int minTo ();
+      void push (long key, int u, int v);
+      void pop ();
+
+      // Keeps only the entries accepted by the filter, in O(size)
+      void retain (EntryFilter filter);
+   }
+
+   interface EntryFilter {
+      boolean keep (long key, int from, int to);
+   }
+
+   // Binary min-heap over point ids, with the position of each id in the heap so that
+   // its key can be lowered in place (the indexed PQ of eager Prim)
+   static class IndexedHeap {
+
+      private long[] keys;            // Key of each id
+      private int[] heap;             // Ids in heap order
+      private int[] pos;              // Position of each id in heap, -1 if absent
+      private int size;
+
+      IndexedHeap (int n) {
+         keys = new long[n];
+         heap = new int[n];
+         pos = new int[n];
+         Arrays.fill(pos, -1);
+      }
+
+      boolean isEmpty () {
+         return size == 0;
+      }
+
+      long minKey () {
+         return keys[heap[0]];
+      }
+
+      // Inserts id, or lowers its key. Returns false if its key was already <= key
+      boolean offer (int id, long key) {
+
+         if (pos[id] < 0) {
+            pos[id] = size;
+            heap[size++] = id;
+         } else if (keys[id] <= key) {
+            return false;
+         }
+
+         keys[id] = key;
+         siftUp(pos[id]);
+         return true;
+      }
+
+      // Removes the id with the smallest key and returns it
+      int pop () {
+
+         int min = heap[0];
+         pos[min] = -1;
+
+         if (--size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            siftDown(0);
+         }
+
+         return min;
+      }
+
+      private void siftUp (int i) {
+
+         int id = heap[i];
+
+         while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[heap[parent]] <= keys[id]) break;
+
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+         }
+
+         heap[i] = id;
+         pos[id] = i;
+      }
+
+      private void siftDown (int i) {
+
+         int id = heap[i];
+
+         while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) child++;
+            if (keys[heap[child]] >= keys[id]) break;
+
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+         }
+
+         heap[i] = id;
+         pos[id] = i;
+      }
+   }
+
+   // Binary min-heap of candidate edges stored in parallel primitive arrays:
+   // (squared length, from, to). Pushing and popping allocate nothing once the
+   // arrays have grown to the peak queue size
+   static class EdgeHeap implements EdgeQueue {
+
+      private long[] keys = new long[64];
+      private int[] from = new int[64], to = new int[64];
+      private int size;
+
+      public boolean isEmpty () {
+         return size == 0;
+      }
+
+      public int size () {
+         return size;
+      }
+
+      public long minKey () {
+         return keys[0];
+      }
+
+      public int minFrom () {
+         return from[0];
+      }
+
+      public int minTo () {
+         return to[0];
+      }
+
+      public void push (long key, int u, int v) {
+
+         if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            from = Arrays.copyOf(from, 2 * size);
+            to = Arrays.copyOf(to, 2 * size);
+         }
+
+         // Sift the hole up
+         int i = size++;
+
+         while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) break;
+
+            keys[i] = keys[parent];
+            from[i] = from[parent];
+            to[i] = to[parent];
+            i = parent;
+         }
+
+         keys[i] = key;
+         from[i] = u;
+         to[i] = v;
+      }
+
+      public void pop () {
+
+         size--;
+         if (size == 0) return;
+
+         siftDown(0, keys[size], from[size], to[size]);
+      }
+
+      public void retain (EntryFilter filter) {
+
+         int kept = 0;
+
+         for (int i = 0; i < size; i++) {
+            if (filter.keep(keys[i], from[i], to[i])) {
+               keys[kept] = keys[i];
+               from[kept] = from[i];
+               to[kept] = to[i];
+               kept++;
+            }
+         }
+
+         size = kept;
+
+         // Floyd's bottom-up heap construction
+         for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, keys[i], from[i], to[i]);
+         }
+      }
+
+      // Sifts the hole at i down and stores the entry where it stops
+      private void siftDown (int i, long key, int u, int v) {
+
+         while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if (keys[child] >= key) break;
+
+            keys[i] = keys[child];
+            from[i] = from[child];
+            to[i] = to[child];
+            i = child;
+         }
+
+         keys[i] = key;
+         from[i] = u;
+         to[i] = v;
+      }
+   }
+
+   // Bucket queue for integer keys in [0, bucketCount): one bucket per squared
+   // length, each a linked stack of edges in a shared node pool. Push is O(1).
+   // Prim's keys are not monotone (a new point can add edges shorter than the last
+   // one extracted), so a radix heap does not apply: instead the minimum is found
+   // from a lower-bound cursor through a two-level occupancy bitmap, which skips
+   // 64 empty buckets per word and 4096 per summary word
+   static class BucketQueue implements EdgeQueue {
+
+      static final int MAX_BUCKETS = 1 << 22;
+
+      private int[] head;                  // First node of each bucket, -1 if empty
+      private long[] occupied, summary;    // Bit per non-empty bucket / per non-empty occupied word
+
+      private int[] next, from, to;        // Node pool
+      private int poolSize, freeNode = -1;
+
+      private int size;
+      private int cursor;                  // No bucket below the cursor holds an edge
+
+      BucketQueue (int bucketCount) {
+         head = new int[bucketCount];
+         Arrays.fill(head, -1);
+
+         occupied = new long[(bucketCount + 63) >>> 6];
+         summary = new long[(occupied.length + 63) >>> 6];
+
+         next = new int[64];
+         from = new int[64];
+         to = new int[64];
+      }
+
+      public boolean isEmpty () {
+         return size == 0;
+      }
+
+      public int size () {
+         return size;
+      }
+
+      public long minKey () {
+         seekMin();
+         return cursor;
+      }
+
+      public int minFrom () {
+         seekMin();
+         return from[head[cursor]];
+      }
+
+      public int minTo () {
+         seekMin();
+         return to[head[cursor]];
+      }
+
+      public void push (long key, int u, int v) {
+
+         int b = (int) key;
+         int node = freeNode;
+
+         if (node >= 0) {
+            freeNode = next[node];
+         } else {
+            if (poolSize == next.length) {
+               next = Arrays.copyOf(next, 2 * poolSize);
+               from = Arrays.copyOf(from, 2 * poolSize);
+               to = Arrays.copyOf(to, 2 * poolSize);
+            }
+            node = poolSize++;
+         }
+
+         from[node] = u;
+         to[node] = v;
+         next[node] = head[b];
+
+         if (head[b] < 0) {
+            occupied[b >>> 6] |= 1L << b;
+            summary[b >>> 12] |= 1L << (b >>> 6);
+         }
+
+         head[b] = node;
+         size++;
+
+         if (b < cursor) cursor = b;
+      }
+
+      public void pop () {
+
+         seekMin();
+
+         int b = cursor;
+         int node = head[b];
+
+         head[b] = next[node];
+         next[node] = freeNode;
+         freeNode = node;
+         size--;
+
+         if (head[b] < 0) {
+            occupied[b >>> 6] &= ~(1L << b);
+            if (occupied[b >>> 6] == 0) summary[b >>> 12] &= ~(1L << (b >>> 6));
+         }
+      }
+
+      // Walks the non-empty buckets in increasing key order
+      public void retain (EntryFilter filter) {
+
+         for (int w = 0; w < occupied.length; w++) {
+            for (long bits = occupied[w]; bits != 0; bits &= bits - 1) {
+
+               int b = (w << 6) + Long.numberOfTrailingZeros(bits);
+               int kept = -1, last = -1;
+
+               for (int node = head[b]; node >= 0; ) {
+                  int following = next[node];
+
+                  if (filter.keep(b, from[node], to[node])) {
+                     if (last < 0) kept = node;
+                     else next[last] = node;
+                     last = node;
+                  } else {
+                     next[node] = freeNode;
+                     freeNode = node;
+                     size--;
+                  }
+
+                  node = following;
+               }
+
+               if (last >= 0) next[last] = -1;
+               head[b] = kept;
+
+               if (kept < 0) {
+                  occupied[w] &= ~(1L << b);
+                  if (occupied[w] == 0) summary[w >>> 6] &= ~(1L << w);
+               }
+            }
+         }
+      }
+
+      // Moves the cursor to the first non-empty bucket (the queue must not be empty)
+      private void seekMin () {
+
+         if (head[cursor] >= 0) return;
+
+         int w = cursor >>> 6;
+         long bits = occupied[w] & (-1L << cursor);
+
+         if (bits == 0) {
+            // Next non-empty word, through the summary bitmap
+            int s = (w + 1) >>> 6;
+            long sBits = (w + 1) < occupied.length ? summary[s] & (-1L << (w + 1)) : 0;
+
+            while (sBits == 0) sBits = summary[++s];
+
+            w = (s << 6) + Long.numberOfTrailingZeros(sBits);
+            bits = occupied[w];
+         }
+
+         cursor = (w << 6) + Long.numberOfTrailingZeros(bits);
+      }
+   }
+
+   // Edge representation
+   static class Edge implements Comparable<Edge> {
+
+      Point first, second;
+      double weight;
+
+      public Edge (Point aPoint, Point bPoint) {
+         this(aPoint, bPoint, euclideanDist(aPoint, bPoint));
+      }
+
+      // Weight already known (e.g. from a squared distance computed by a kernel)
+      public Edge (Point aPoint, Point bPoint, double w) {
+         first = aPoint;
+         second = bPoint;
+         weight = w;
+      }
+
+      // Must be implemented to make the PQ work
+      @Override
+      public int compareTo (Edge other) {
+         return Double.compare(weight, other.weight);
+      }
+
+      @Override
+      public String toString () {
+         return first.toString() + second.toString();
+      }
+   }
+
+   // Growable list of candidate edges in primitive arrays
+   static class EdgeList {
+
+      long[] sqDist = new long[64];
+      int[] a = new int[64], b = new int[64];
+      int size;
+
+      void add (long d, int u, int v) {
+
+         if (size == sqDist.length) {
+            sqDist = Arrays.copyOf(sqDist, 2 * size);
+            a = Arrays.copyOf(a, 2 * size);
+            b = Arrays.copyOf(b, 2 * size);
+         }
+
+         sqDist[size] = d;
+         a[size] = u;
+         b[size] = v;
+         size++;
+      }
+
+      // Kruskal: keeps only the minimum spanning forest edges, sorted by weight
+      void keepSpanningForest (int vertices) {
+
+         int[] perm = new int[size];
+         long[] keys = Arrays.copyOf(sqDist, size);
+         for (int i = 0; i < size; i++) perm[i] = i;
+
+         sortByKey(keys, perm, size);
+
+         UnionFind sets = new UnionFind(vertices);
+         long[] d = new long[Math.min(size, vertices)];
+         int[] na = new int[d.length], nb = new int[d.length];
+         int kept = 0;
+
+         for (int i = 0; i < size && kept < d.length; i++) {
+            int e = perm[i];
+            if (sets.union(a[e], b[e])) {
+               d[kept] = sqDist[e];
+               na[kept] = a[e];
+               nb[kept] = b[e];
+               kept++;
+            }
+         }
+
+         sqDist = d;
+         a = na;
+         b = nb;
+         size = kept;
+      }
+   }
+
+   // Offsets of the cells within rings cells of a cell, sorted by a lower bound on
+   // the squared distance between a point of the cell and a point of the offset
+   // cell (with a unit of slack for the rounding of the cell coordinates). Offsets
+   // farther than maxSqDist are left out: with cells finer than alpha, the corners
+   // of the square of rings. Offsets at the same distance are in the order of a
+   // scan by column, then by row
+   static class Stencil {
+
+      final int rings, size;
+      final int[] xShift, yShift;
+      final long[] minSqDist;
+
+      Stencil (int r, double cellSize, long maxSqDist) {
+
+         int side = 2 * r + 1;
+         int[] xs = new int[side * side], ys = new int[side * side];
+         long[] gaps = new long[side * side];
+         int kept = 0;
+
+         for (int xShift = -r; xShift <= r; xShift++) {
+            for (int yShift = -r; yShift <= r; yShift++) {
+
+               // Points of cells k apart are more than (k - 1) cells apart on that axis
+               long xGap = (long) Math.max(0, Math.ceil((Math.abs(xShift) - 1) * cellSize) - 1);
+               long yGap = (long) Math.max(0, Math.ceil((Math.abs(yShift) - 1) * cellSize) - 1);
+               long gap = xGap * xGap + yGap * yGap;
+
+               if (gap > maxSqDist) continue;
+
+               xs[kept] = xShift;
+               ys[kept] = yShift;
+               gaps[kept] = gap;
+               kept++;
+            }
+         }
+
+         Integer[] byGap = new Integer[kept];
+         for (int k = 0; k < kept; k++) byGap[k] = k;
+         Arrays.sort(byGap, Comparator.comparingLong(k -> gaps[k]));
+
+         rings = r;
+         size = kept;
+         xShift = new int[kept];
+         yShift = new int[kept];
+         minSqDist = new long[kept];
+
+         for (int k = 0; k < kept; k++) {
+            xShift[k] = xs[byGap[k]];
+            yShift[k] = ys[byGap[k]];
+            minSqDist[k] = gaps[byGap[k]];
+         }
+      }
+   }
+
+   // Disjoint sets with path halving and union by size
+   static class UnionFind {
+
+      private int[] parent, size;
+
+      UnionFind (int n) {
+         parent = new int[n];
+         size = new int[n];
+
+         for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            size[i] = 1;
+         }
+      }
+
+      int find (int x) {
+         while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+         }
+         return x;
+      }
+
+      // Returns false if a and b were already in the same set
+      boolean union (int a, int b) {
+
+         int ra = find(a);
+         int rb = find(b);
+
+         if (ra == rb) return false;
+
+         if (size[ra] < size[rb]) {
+            int tmp = ra;
+            ra = rb;
+            rb = tmp;
+         }
+
+         parent[rb] = ra;
+         size[ra] += size[rb];
+
+         return true;
+      }
+
+      int size (int x) {
+         return size[find(x)];
       }
    }
 
@@ -0,0 +1,715 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// External-memory alpha-EMST for point sets that do not fit in the heap.
+//
+// The plane is cut into square tiles whose side is a multiple of alpha. Every
+// tile is spilled to its own file, together with a halo: the points of the
+// neighboring tiles that lie within alpha of its border. Each tile is then solved
+// on its own, producing the MSF of its internal edges and the MSF of the edges
+// crossing into its halo. Both are subsets of a partition of the alpha-graph's
+// edges, so the global alpha-EMST is contained in their union, and a final
+// Kruskal pass merges the (already sorted) per-tile edge files.
+//
+// Tiles that come out much denser than the target (clustered inputs) are split
+// in halves along each axis, again with halos, until they fit or are a single alpha-cell.
+//
+// Only the union-find over point ids and one tile at a time are kept in memory.
+// Tiles can also be solved by separate worker processes (see TileWorker), which
+// takes the per-tile work out of the coordinator's heap altogether.
+public class ExternalEMST {
+
+/*
+File structure (top to bottom)
+   - Main method
+   - Pipeline (convert, partition, solve tiles, merge)
+   - Tile solver
+   - Support methods
+*/
+
+// --------------------------------------- MAIN ---------------------------------------
+   public static void main(String[] args) {
+
+      String usage = "Invalid arguments. Correct use is: java ExternalEMST <path/to/file.txt> <alpha> [work_dir]"
+                   + " [-tile <points>] [-workers <k>] [-launcher \"<command>\"] [-standin <k>]";
+
+      // Check command line arguments
+      if (args.length < 2) {
+         System.err.println(usage);
+         return;
+      }
+
+      double alpha = 0.0;
+      Path workDir = null;
+      int tilePoints = defaultTilePoints();
+      int workers = 0;
+      List<String> launcher = null;
+      boolean standIn = false;
+
+      try {
+         alpha = Double.parseDouble(args[1]);
+      } catch (NumberFormatException e) {
+         System.err.println("Can't interpret alpha as double");
+         return;
+      }
+
+      try {
+         for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+               case "-tile":     tilePoints = Integer.parseInt(args[++i]); break;
+               case "-workers":  workers = Integer.parseInt(args[++i]); break;
+               case "-standin":  workers = Integer.parseInt(args[++i]); standIn = true; break;
+               case "-launcher": launcher = Arrays.asList(args[++i].trim().split("\\s+")); break;
+               default:
+                  if (args[i].startsWith("-") || workDir != null) throw new IllegalArgumentException(args[i]);
+                  workDir = Paths.get(args[i]);
+            }
+         }
+      } catch (RuntimeException e) {
+         System.err.println(usage);
+         return;
+      }
+
+      TileWorker.Transport transport = null;
+      if (workers > 0) transport = standIn ? TileWorker.localTransport() : TileWorker.processTransport(launcher);
+
+      try {
+         ExternalEMST emst = new ExternalEMST(args[0], alpha, workDir, tilePoints, transport, workers);
+         System.out.println(emst);
+      } catch (Exception e) {
+         System.err.println(e);
+      }
+   }
+
+// --------------------------------------- PIPELINE ---------------------------------------
+
+   static final int RECORD_BUFFER = 1 << 16;
+   static final int TILE_RECORD   = 12;           // Bytes of an (id, x, y) tile record
+   static final int EDGE_RECORD   = 16;           // Bytes of an (sqDist, idA, idB) edge record
+   private static final int MAX_TILES     = 512;          // Bounded by the number of files open at once
+   private static final int DENSE_TILE    = 4;            // Tiles above this many times the target points are split
+   static final int MAX_POINTS    = Integer.MAX_VALUE - 8;        // Ids are 32-bit, and index the union-find array
+
+   private double alpha;
+   private long maxSqDist;
+   private long vCount;
+   private int minX, minY, maxX, maxY;
+
+   // Tiling: tiles are squares of cellsPerTile x cellsPerTile alpha-cells
+   private int cellsPerTile;
+   private int baseCellX, baseCellY;
+   private int tilesX, tilesY;
+   private ArrayList<long[]> rects = new ArrayList<>();    // Cells of every tile id: first cell x, y, width and height in cells
+
+   // Output informations
+   private double totalWeight;
+   private long edgeCount;
+   private ArrayList<long[]> smallTree;        // Tree edges, only kept for tiny inputs (as in EMST)
+   private int[] smallXs, smallYs;
+
+   private Path workDir;
+
+   public ExternalEMST(String filePath, double a, Path dir, int tilePoints) throws Exception {
+      this(filePath, a, dir, tilePoints, null, 0);
+   }
+
+   // With a transport, tiles are solved by that many concurrent workers instead of in this JVM
+   public ExternalEMST(String filePath, double a, Path dir, int tilePoints, TileWorker.Transport transport, int workers) throws Exception {
+
+      alpha = a;
+      maxSqDist = EMST.maxSquaredDistance(a);
+
+      boolean ownDir = dir == null;
+      workDir = ownDir ? Files.createTempDirectory("emst") : Files.createDirectories(dir);
+
+      try {
+         Path pointFile = workDir.resolve("points.bin");
+         convert(Paths.get(filePath), pointFile);
+
+         if (vCount == 0) {
+            throw new Exception("Error while reading the points");
+         }
+
+         chooseTiles(tilePoints);
+
+         partition(pointFile, tilesX * tilesY);
+         Files.delete(pointFile);
+
+         splitDenseTiles(tilePoints);
+         int tiles = rects.size();
+
+         // Pass 3: solve the tiles, one at a time or on the workers
+         if (transport == null) {
+            for (int t = 0; t < tiles; t++) {
+               Path tileFile = tileFile(t);
+               if (!Files.exists(tileFile)) continue;
+
+               solveTile(tileFile, edgeFile(t), alpha);
+               Files.delete(tileFile);
+            }
+         } else {
+            solveOnWorkers(tiles, transport, workers);
+         }
+
+         merge(tiles);
+
+      } finally {
+         cleanUp(workDir, ownDir);
+      }
+   }
+
+   // Pass 1: parse the text input into a binary file of (x, y) records and find the bounds
+   private void convert (Path input, Path output) throws IOException {
+
+      minX = minY = Integer.MAX_VALUE;
+      maxX = maxY = Integer.MIN_VALUE;
+
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(input), RECORD_BUFFER);
+           DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), RECORD_BUFFER)) ) {
+
+         long[] value = new long[1];
+
+         while (readInt(in, value)) {
+
+            int x = (int) value[0];
+            if (!readInt(in, value)) break;
+            int y = (int) value[0];
+
+            if (vCount == MAX_POINTS) {
+               throw new IOException("More than " + MAX_POINTS + " points: point ids are 32-bit");
+            }
+
+            out.writeInt(x);
+            out.writeInt(y);
+
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+
+            if (vCount < 10) {
+               if (smallXs == null) {
+                  smallXs = new int[10];
+                  smallYs = new int[10];
+               }
+               smallXs[(int) vCount] = x;
+               smallYs[(int) vCount] = y;
+            }
+
+            vCount++;
+         }
+      }
+   }
+
+   // Tiles are alpha-aligned squares sized so that an evenly spread input puts about
+   // tilePoints points in each one
+   private void chooseTiles (int tilePoints) {
+
+      baseCellX = cellCoord(minX);
+      baseCellY = cellCoord(minY);
+
+      long cellsX = cellCoord(maxX) - baseCellX + 1L;
+      long cellsY = cellCoord(maxY) - baseCellY + 1L;
+
+      double wanted = Math.ceil((double) vCount / tilePoints);
+      cellsPerTile = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 2, Math.ceil(Math.max(cellsX, cellsY) / Math.sqrt(wanted))));
+
+      while (true) {
+         tilesX = (int) ((cellsX + cellsPerTile - 1) / cellsPerTile);
+         tilesY = (int) ((cellsY + cellsPerTile - 1) / cellsPerTile);
+
+         if ((long) tilesX * tilesY <= MAX_TILES) break;
+         cellsPerTile *= 2;
+      }
+
+      for (int ty = 0; ty < tilesY; ty++) {
+         for (int tx = 0; tx < tilesX; tx++) {
+            rects.add(new long[] {baseCellX + (long) tx * cellsPerTile, baseCellY + (long) ty * cellsPerTile, cellsPerTile, cellsPerTile});
+         }
+      }
+   }
+
+   // Pass 2: write every point to its tile file, and to the halo of each tile with a
+   // smaller index lying within alpha, so that every crossing edge shows up in exactly one tile.
+   // Records are (id, x, y), halo records store -id-1
+   private void partition (Path pointFile, int tiles) throws IOException {
+
+      DataOutputStream[] outs = new DataOutputStream[tiles];
+
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pointFile), RECORD_BUFFER)) ) {
+
+         for (long id = 0; id < vCount; id++) {
+
+            int x = in.readInt();
+            int y = in.readInt();
+
+            int tx = tileX(x);
+            int ty = tileY(y);
+            int own = ty * tilesX + tx;
+
+            writeRecord(outs, own, (int) id, x, y);
+
+            for (int dx = -1; dx <= 1; dx++) {
+               for (int dy = -1; dy <= 1; dy++) {
+
+                  int nx = tx + dx, ny = ty + dy;
+                  if (nx < 0 || ny < 0 || nx >= tilesX || ny >= tilesY) continue;
+
+                  int other = ny * tilesX + nx;
+                  if (other >= own || sqDistToRect(x, y, rects.get(other)) > maxSqDist) continue;
+
+                  writeRecord(outs, other, (int) (-id - 1), x, y);
+               }
+            }
+         }
+
+      } finally {
+         for (DataOutputStream out : outs) {
+            if (out != null) out.close();
+         }
+      }
+   }
+
+   // Pass 2b: with MAX_TILES tiles, a cluster can put far more than tilePoints points
+   // in one tile, more than the heap holds. Such a tile is cut in half along each
+   // axis that is wider than one cell (new tile ids for the 2 or 4 parts, which
+   // cover exactly its cells), the same way the plane was: every point of the tile
+   // goes to its part, and to the halo of the parts with a smaller id within alpha;
+   // the tile's own halo points go to the halo of every part within alpha. Each
+   // edge of the tile still lands in exactly one part. Parts are checked in turn,
+   // so the split goes on where needed.
+   // A single alpha-cell is not split (its halo alone can be several times its own
+   // points): it is solved as it is if the heap can hold it, and fails otherwise
+   private void splitDenseTiles (int tilePoints) throws IOException {
+
+      long limit = (long) tilePoints * DENSE_TILE;
+
+      for (int t = 0; t < rects.size(); t++) {
+
+         Path tileFile = tileFile(t);
+         if (!Files.exists(tileFile)) continue;
+
+         long records = Files.size(tileFile) / TILE_RECORD;
+         if (records <= limit) continue;
+
+         long[] rect = rects.get(t);
+
+         if (rect[2] == 1 && rect[3] == 1) {
+            if (records <= heapTilePoints()) continue;
+            throw new IOException(String.format(java.util.Locale.US,
+                  "Tile of %d points in the single alpha-cell (%d, %d): too dense to solve in the heap (raise -Xmx or -tile)",
+                  records, rect[0], rect[1]));
+         }
+
+         // Width and height of the first part along each axis (the whole side when it is not cut)
+         long xHalf = (rect[2] + 1) / 2, yHalf = (rect[3] + 1) / 2;
+         int xParts = rect[2] > 1 ? 2 : 1, yParts = rect[3] > 1 ? 2 : 1;
+         int first = rects.size();
+
+         for (int py = 0; py < yParts; py++) {
+            for (int px = 0; px < xParts; px++) {
+               rects.add(new long[] {rect[0] + px * xHalf, rect[1] + py * yHalf,
+                                     px == 0 && xParts == 2 ? xHalf : rect[2] - px * xHalf,
+                                     py == 0 && yParts == 2 ? yHalf : rect[3] - py * yHalf});
+            }
+         }
+         int last = rects.size();
+
+         DataOutputStream[] outs = new DataOutputStream[rects.size()];
+
+         try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(tileFile), RECORD_BUFFER)) ) {
+
+            for (long r = 0; r < records; r++) {
+
+               int id = in.readInt();
+               int x = in.readInt();
+               int y = in.readInt();
+
+               int own = -1;
+               if (id >= 0) {
+                  int px = xParts == 2 && cellCoord(x) - rect[0] >= xHalf ? 1 : 0;
+                  int py = yParts == 2 && cellCoord(y) - rect[1] >= yHalf ? 1 : 0;
+                  own = first + py * xParts + px;
+                  writeRecord(outs, own, id, x, y);
+               }
+
+               for (int q = first; q < last; q++) {
+                  if (id >= 0 && q >= own) break;
+                  if (sqDistToRect(x, y, rects.get(q)) <= maxSqDist) writeRecord(outs, q, id >= 0 ? -id - 1 : id, x, y);
+               }
+            }
+
+         } finally {
+            for (DataOutputStream out : outs) {
+               if (out != null) out.close();
+            }
+         }
+
+         Files.delete(tileFile);
+      }
+   }
+
+   // Every worker thread keeps one link open and pulls tiles from a shared counter.
+   // Tile and edge files are streamed through the link as they are, so the
+   // coordinator never holds a tile in memory
+   private void solveOnWorkers (int tiles, TileWorker.Transport transport, int workers) throws Exception {
+
+      AtomicInteger nextTile = new AtomicInteger();
+      ExecutorService pool = Executors.newFixedThreadPool(workers);
+      ArrayList<Future<Void>> results = new ArrayList<>();
+
+      for (int w = 0; w < workers; w++) {
+         results.add(pool.submit(() -> {
+
+            try (TileWorker.Link link = transport.open()) {
+
+               for (int t = nextTile.getAndIncrement(); t < tiles; t = nextTile.getAndIncrement()) {
+
+                  Path tileFile = tileFile(t);
+                  if (!Files.exists(tileFile)) continue;
+
+                  link.toWorker.writeInt((int) (Files.size(tileFile) / TILE_RECORD));
+                  link.toWorker.writeDouble(alpha);
+                  Files.copy(tileFile, link.toWorker);
+                  link.toWorker.flush();
+
+                  try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(edgeFile(t)), RECORD_BUFFER)) ) {
+
+                     int m = link.fromWorker.readInt();
+                     out.writeInt(m);
+
+                     byte[] record = new byte[EDGE_RECORD];
+                     for (int i = 0; i < m; i++) {
+                        link.fromWorker.readFully(record);
+                        out.write(record);
+                     }
+                  }
+
+                  Files.delete(tileFile);
+               }
+            }
+
+            return null;
+         }));
+      }
+
+      pool.shutdown();
+
+      try {
+         for (Future<Void> r : results) r.get();
+      } catch (ExecutionException e) {
+         throw new IOException("Tile worker failed", e.getCause());
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+   // Pass 4: k-way merge of the sorted per-tile edge files into a single Kruskal run.
+   // After splits there can be more edge files than can be open at once: they are
+   // first merged, MAX_TILES at a time, into longer sorted runs
+   private void merge (int tiles) throws IOException {
+
+      ArrayList<Path> files = new ArrayList<>();
+      for (int t = 0; t < tiles; t++) {
+         if (Files.exists(edgeFile(t))) files.add(edgeFile(t));
+      }
+
+      for (int next = tiles; files.size() > MAX_TILES; next++) {
+         List<Path> group = files.subList(0, MAX_TILES);
+         mergeRuns(group, edgeFile(next));
+         for (Path f : group) Files.delete(f);
+         group.clear();
+         files.add(edgeFile(next));
+      }
+
+      // vCount <= MAX_POINTS, checked while converting
+      EMST.UnionFind sets = new EMST.UnionFind((int) vCount);
+      PriorityQueue<EdgeRun> runs = new PriorityQueue<>();
+
+      if (vCount <= 10) smallTree = new ArrayList<>();
+
+      try {
+         for (Path f : files) {
+            EdgeRun run = new EdgeRun(f);
+            if (run.advance()) runs.add(run);
+            else run.close();
+         }
+
+         while (!runs.isEmpty() && edgeCount < vCount - 1) {
+
+            EdgeRun run = runs.poll();
+
+            if (sets.union(run.a, run.b)) {
+               totalWeight += Math.sqrt(run.sqDist);
+               edgeCount++;
+               if (smallTree != null) smallTree.add(new long[] {run.a, run.b});
+            }
+
+            if (run.advance()) runs.add(run);
+            else run.close();
+         }
+
+      } finally {
+         for (EdgeRun run : runs) run.close();
+      }
+   }
+
+   // Merges sorted edge files into one, keeping every edge. The count in the header
+   // is informational (runs are read up to the end of the file), so it saturates
+   private static void mergeRuns (List<Path> files, Path output) throws IOException {
+
+      PriorityQueue<EdgeRun> runs = new PriorityQueue<>();
+      long count = 0;
+
+      for (Path f : files) count += (Files.size(f) - 4) / EDGE_RECORD;
+
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), RECORD_BUFFER)) ) {
+
+         for (Path f : files) {
+            EdgeRun run = new EdgeRun(f);
+            if (run.advance()) runs.add(run);
+            else run.close();
+         }
+
+         out.writeInt((int) Math.min(count, Integer.MAX_VALUE));
+
+         while (!runs.isEmpty()) {
+
+            EdgeRun run = runs.poll();
+
+            out.writeLong(run.sqDist);
+            out.writeInt(run.a);
+            out.writeInt(run.b);
+
+            if (run.advance()) runs.add(run);
+            else run.close();
+         }
+
+      } finally {
+         for (EdgeRun run : runs) run.close();
+      }
+   }
+
+   // Same format as EMST
+   @Override
+   public String toString () {
+
+      if (edgeCount < vCount - 1) {
+         return "FAIL";
+      }
+
+      String outStr = String.format(java.util.Locale.US, "%.2f", totalWeight);
+
+      if (vCount <= 10) {
+         for (long[] e : smallTree) {
+            int a = (int) e[0], b = (int) e[1];
+            outStr = outStr + "\n(" + smallXs[a] + "," + smallYs[a] + ")(" + smallXs[b] + "," + smallYs[b] + ")";
+         }
+      }
+
+      return outStr;
+   }
+
+// --------------------------------------- TILE SOLVER ---------------------------------------
+
+   // Reads a tile file and writes the MSF of its internal edges together with the MSF
+   // of its edges towards the halo, as one file of (sqDist, idA, idB) records sorted by weight
+   static void solveTile (Path tileFile, Path edgeFile, double alpha) throws IOException {
+
+      int n = (int) (Files.size(tileFile) / TILE_RECORD);
+
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(tileFile), RECORD_BUFFER));
+           DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(edgeFile), RECORD_BUFFER)) ) {
+
+         solveTile(in, n, out, alpha);
+      }
+   }
+
+   // Stream version of the tile solver: reads n tile records and writes the edge count
+   // followed by the sorted edge records. Worker processes run exactly this
+   static void solveTile (DataInputStream in, int n, DataOutputStream out, double alpha) throws IOException {
+
+      long maxSqDist = EMST.maxSquaredDistance(alpha);
+      int[] ids = new int[n], xs = new int[n], ys = new int[n];
+
+      for (int i = 0; i < n; i++) {
+         ids[i] = in.readInt();
+         xs[i] = in.readInt();
+         ys[i] = in.readInt();
+      }
+
+      GridIndex grid = new GridIndex(xs, ys, n, alpha);
+
+      EMST.EdgeList inner = new EMST.EdgeList();
+      EMST.EdgeList crossing = new EMST.EdgeList();
+
+      // Every pair within alpha, each visited exactly once
+      grid.forEachPair(maxSqDist, (a, b, sqDist) -> {
+
+         boolean haloA = ids[a] < 0, haloB = ids[b] < 0;
+
+         // Halo-halo pairs belong to other tiles
+         if (haloA && haloB) return;
+
+         (haloA || haloB ? crossing : inner).add(sqDist, a, b);
+      });
+
+      inner.keepSpanningForest(n);
+      crossing.keepSpanningForest(n);
+
+      // Both forests are sorted: merge them into a single sorted run
+      int i = 0, j = 0;
+
+      out.writeInt(inner.size + crossing.size);
+
+      while (i < inner.size || j < crossing.size) {
+
+         boolean takeInner = j == crossing.size || (i < inner.size && inner.sqDist[i] <= crossing.sqDist[j]);
+         EMST.EdgeList src = takeInner ? inner : crossing;
+         int k = takeInner ? i++ : j++;
+
+         out.writeLong(src.sqDist[k]);
+         out.writeInt(globalId(ids[src.a[k]]));
+         out.writeInt(globalId(ids[src.b[k]]));
+      }
+
+      out.flush();
+   }
+
+   private static int globalId (int recordId) {
+      return recordId < 0 ? -recordId - 1 : recordId;
+   }
+
+// --------------------------------------- SUPPORT METHODS ---------------------------------------
+
+   // Heap limit divided by a conservative per-point footprint of the tile solver
+   static int defaultTilePoints () {
+      return (int) Math.max(1 << 12, Math.min(1 << 24, heapTilePoints() / 4));
+   }
+
+   // Most points of a tile the solver can hold in the whole heap
+   static long heapTilePoints () {
+      return Runtime.getRuntime().maxMemory() / TILE_POINT_BYTES;
+   }
+
+   private static final int TILE_POINT_BYTES = 256;
+
+   // Same cells as GridIndex and EMST's grid
+   private int cellCoord (int c) {
+      return (int) Math.floor(c / alpha);
+   }
+
+   private int tileX (int x) {
+      return (int) (((long) cellCoord(x) - baseCellX) / cellsPerTile);
+   }
+
+   private int tileY (int y) {
+      return (int) (((long) cellCoord(y) - baseCellY) / cellsPerTile);
+   }
+
+   // Squared distance from (x, y) to a tile's cells (first cell x, y, width and height in cells), rounded down
+   private long sqDistToRect (int x, int y, long[] rect) {
+
+      double left = rect[0] * alpha, right = left + rect[2] * alpha;
+      double bottom = rect[1] * alpha, top = bottom + rect[3] * alpha;
+
+      double xDiff = x < left ? left - x : (x > right ? x - right : 0);
+      double yDiff = y < bottom ? bottom - y : (y > top ? y - top : 0);
+
+      return (long) Math.floor(xDiff * xDiff + yDiff * yDiff);
+   }
+
+   private void writeRecord (DataOutputStream[] outs, int tile, int id, int x, int y) throws IOException {
+
+      if (outs[tile] == null) {
+         outs[tile] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tileFile(tile)), RECORD_BUFFER));
+      }
+
+      outs[tile].writeInt(id);
+      outs[tile].writeInt(x);
+      outs[tile].writeInt(y);
+   }
+
+   private Path tileFile (int t) {
+      return workDir.resolve("tile_" + t + ".bin");
+   }
+
+   private Path edgeFile (int t) {
+      return workDir.resolve("edges_" + t + ".bin");
+   }
+
+   // Reads the next integer (optionally signed) from a text stream, skipping any
+   // other character. Much faster than a Scanner per line on huge inputs
+   static boolean readInt (InputStream in, long[] value) throws IOException {
+
+      int c = in.read();
+
+      while (c != -1 && c != '-' && (c < '0' || c > '9')) c = in.read();
+      if (c == -1) return false;
+
+      boolean negative = c == '-';
+      if (negative) c = in.read();
+
+      long v = 0;
+      while (c >= '0' && c <= '9') {
+         v = v * 10 + (c - '0');
+         c = in.read();
+      }
+
+      value[0] = negative ? -v : v;
+      return true;
+   }
+
+   // Removes the spill files, and the work directory itself if it was created here
+   private static void cleanUp (Path dir, boolean removeDir) throws IOException {
+
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "{points.bin,tile_*.bin,edges_*.bin}")) {
+         for (Path f : files) Files.delete(f);
+      }
+
+      if (removeDir) Files.delete(dir);
+   }
+
+// --------------------------------------- SUPPORT CLASSES ---------------------------------------
+
+   // Sequential reader over one sorted edge file
+   private static class EdgeRun implements Comparable<EdgeRun>, Closeable {
+
+      private DataInputStream in;
+      private long remaining;
+
+      long sqDist;
+      int a, b;
+
+      EdgeRun (Path file) throws IOException {
+         in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), RECORD_BUFFER));
+         in.readInt();
+         remaining = (Files.size(file) - 4) / EDGE_RECORD;
+      }
+
+      boolean advance () throws IOException {
+         if (remaining == 0) return false;
+
+         sqDist = in.readLong();
+         a = in.readInt();
+         b = in.readInt();
+         remaining--;
+
+         return true;
+      }
+
+      @Override
+      public int compareTo (EdgeRun other) {
+         return Long.compare(sqDist, other.sqDist);
+      }
+
+      @Override
+      public void close () throws IOException {
+         in.close();
+      }
+   }
+
+}
@@ -0,0 +1,671 @@
+import java.util.*;
+
+// Flat grid over a point set given as coordinate arrays. Points are sorted by
+// cell, so the points of a cell sit next to each other in sortedX/sortedY, and
+// occupied cells are looked up with a binary search over their sorted keys.
+// Unlike the cell table of EMST it holds no objects, so it also scales to the
+// large per-tile point sets of the external-memory mode.
+class GridIndex {
+
+   final double cellSize;
+   final int pointCount;
+
+   final int[] order;            // Point ids sorted by cell
+   final int[] sortedX, sortedY; // Coordinates in the same order
+   final long[] cellKeys;        // Keys of the occupied cells, ascending
+   final int[] cellStart;        // Points of cell c are in [cellStart[c], cellStart[c+1])
+   final int cellCount;
+   final int[] cellMinX, cellMinY, cellMaxX, cellMaxY;   // Bounding box of each cell's points
+   final int xFirst, yFirst, xLast, yLast;               // Range of the occupied cells
+
+   GridIndex (int[] xs, int[] ys, int n, double size) {
+      this(xs, ys, n, size, 1);
+   }
+
+   // With several threads, every pass over the points (cell keys, the radix sort
+   // by cell, the copy of the coordinates and the bounding boxes) is split into
+   // slices. The layout is exactly the one of a sequential build
+   GridIndex (int[] xs, int[] ys, int n, double size, int threads) {
+
+      cellSize = size;
+      pointCount = n;
+
+      long[] keys = new long[n];
+      order = new int[n];
+
+      int slices = Math.max(1, Math.min(threads, n / EMST.MIN_SLICE));
+
+      EMST.parallelFor(slices, s -> {
+         for (int i = EMST.sliceStart(s, slices, n); i < EMST.sliceStart(s + 1, slices, n); i++) {
+            keys[i] = key(cellCoord(xs[i]), cellCoord(ys[i]));
+            order[i] = i;
+         }
+      });
+
+      EMST.sortByKey(keys, order, n, threads);
+
+      sortedX = new int[n];
+      sortedY = new int[n];
+
+      EMST.parallelFor(slices, s -> {
+         for (int i = EMST.sliceStart(s, slices, n); i < EMST.sliceStart(s + 1, slices, n); i++) {
+            sortedX[i] = xs[order[i]];
+            sortedY[i] = ys[order[i]];
+         }
+      });
+
+      int cells = 0;
+
+      for (int i = 0; i < n; i++) {
+         if (i == 0 || keys[i] != keys[i-1]) cells++;
+      }
+
+      cellKeys = new long[cells];
+      cellStart = new int[cells + 1];
+      cellCount = cells;
+
+      for (int i = 0, c = -1; i < n; i++) {
+         if (i == 0 || keys[i] != keys[i-1]) {
+            cellKeys[++c] = keys[i];
+            cellStart[c] = i;
+         }
+      }
+      cellStart[cells] = n;
+
+      cellMinX = new int[cells];
+      cellMinY = new int[cells];
+      cellMaxX = new int[cells];
+      cellMaxY = new int[cells];
+
+      int cellSlices = Math.max(1, Math.min(slices, cells));
+
+      EMST.parallelFor(cellSlices, s -> {
+
+         for (int c = EMST.sliceStart(s, cellSlices, cellCount); c < EMST.sliceStart(s + 1, cellSlices, cellCount); c++) {
+
+            cellMinX[c] = cellMinY[c] = Integer.MAX_VALUE;
+            cellMaxX[c] = cellMaxY[c] = Integer.MIN_VALUE;
+
+            for (int i = cellStart[c]; i < cellStart[c+1]; i++) {
+               cellMinX[c] = Math.min(cellMinX[c], sortedX[i]);
+               cellMinY[c] = Math.min(cellMinY[c], sortedY[i]);
+               cellMaxX[c] = Math.max(cellMaxX[c], sortedX[i]);
+               cellMaxY[c] = Math.max(cellMaxY[c], sortedY[i]);
+            }
+         }
+      });
+
+      int x0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE;
+      for (int c = 0; c < cells; c++) {
+         x0 = Math.min(x0, cellX(c));
+         x1 = Math.max(x1, cellX(c));
+      }
+
+      xFirst = x0;
+      xLast = x1;
+      yFirst = cells > 0 ? cellY(0) : Integer.MAX_VALUE;
+      yLast = cells > 0 ? cellY(cells - 1) : Integer.MIN_VALUE;
+   }
+
+   // Smallest squared distance between the bounding boxes of cells c and d
+   long minSqDist (int c, int d) {
+      long xDiff = Math.max(0, Math.max((long) cellMinX[d] - cellMaxX[c], (long) cellMinX[c] - cellMaxX[d]));
+      long yDiff = Math.max(0, Math.max((long) cellMinY[d] - cellMaxY[c], (long) cellMinY[c] - cellMaxY[d]));
+      return xDiff * xDiff + yDiff * yDiff;
+   }
+
+   // Largest squared distance between a point of cell c and a point of cell d
+   long maxSqDist (int c, int d) {
+      long xDiff = Math.max((long) cellMaxX[d] - cellMinX[c], (long) cellMaxX[c] - cellMinX[d]);
+      long yDiff = Math.max((long) cellMaxY[d] - cellMinY[c], (long) cellMaxY[c] - cellMinY[d]);
+      return xDiff * xDiff + yDiff * yDiff;
+   }
+
+   int cellCoord (int coord) {
+      return (int) Math.floor(coord / cellSize);
+   }
+
+   // Cell of a coordinate that may be out of the int range, as the nearest in range
+   private int clampedCellCoord (long coord) {
+      return cellCoord((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, coord)));
+   }
+
+   // Index of cell (xCell, yCell), or -1 if it holds no points
+   int cellIndex (int xCell, int yCell) {
+      int c = Arrays.binarySearch(cellKeys, key(xCell, yCell));
+      return c >= 0 ? c : -1;
+   }
+
+   int cellX (int c) {
+      return (int) cellKeys[c] ^ Integer.MIN_VALUE;
+   }
+
+   int cellY (int c) {
+      return (int) (cellKeys[c] >> 32);
+   }
+
+   // The cell itself, then 4 of its 8 neighbors: every pair of neighboring cells
+   // is covered exactly once
+   static final int[][] HALF_STENCIL = { {0, 0}, {1, 0}, {-1, 1}, {0, 1}, {1, 1} };
+
+   interface PairVisitor {
+      void visit (int a, int b, long sqDist);
+   }
+
+   // Visits every pair of points (a, b) with squared distance <= maxSqDist exactly
+   // once, by point id. Only the half stencil is scanned, and pairs inside a cell
+   // are taken in triangular order, so each distance is computed once instead of
+   // twice as in a full 3 x 3 scan per point. Cell pairs whose bounding boxes are
+   // too far apart are skipped, and when they are entirely within range the
+   // per-pair check is skipped
+   void forEachPair (long maxSqDist, PairVisitor visitor) {
+
+      for (int c = 0; c < cellCount; c++) {
+
+         int xCell = cellX(c);
+         int yCell = cellY(c);
+
+         for (int s = 0; s < HALF_STENCIL.length; s++) {
+
+            int nc = s == 0 ? c : cellIndex(xCell + HALF_STENCIL[s][0], yCell + HALF_STENCIL[s][1]);
+            if (nc < 0 || minSqDist(c, nc) > maxSqDist) continue;
+
+            long limit = maxSqDist(c, nc) <= maxSqDist ? Long.MAX_VALUE : maxSqDist;
+
+            for (int i = cellStart[c]; i < cellStart[c+1]; i++) {
+
+               int from = s == 0 ? i + 1 : cellStart[nc];
+
+               for (int j = from; j < cellStart[nc+1]; j++) {
+
+                  long xDiff = sortedX[i] - sortedX[j];
+                  long yDiff = sortedY[i] - sortedY[j];
+                  long sqDist = xDiff * xDiff + yDiff * yDiff;
+
+                  if (sqDist <= limit) visitor.visit(order[i], order[j], sqDist);
+               }
+            }
+         }
+      }
+   }
+
+   // Components of the occupied cells, where neighboring cells are joined when their
+   // bounding boxes are within maxSqDist: every pair of points within maxSqDist
+   // lies in one component
+   EMST.UnionFind cellComponents (long maxSqDist) {
+
+      EMST.UnionFind sets = new EMST.UnionFind(cellCount);
+
+      for (int c = 0; c < cellCount; c++) {
+         for (int s = 1; s < HALF_STENCIL.length; s++) {
+            int nc = cellIndex(cellX(c) + HALF_STENCIL[s][0], cellY(c) + HALF_STENCIL[s][1]);
+            if (nc >= 0 && minSqDist(c, nc) <= maxSqDist) sets.union(c, nc);
+         }
+      }
+
+      return sets;
+   }
+
+   // Components of the graph of pairs within maxSqDist, over positions in the sorted
+   // order: single-linkage clusters at that threshold. Cell pairs that are entirely
+   // within range are joined point by point without computing any distance
+   EMST.UnionFind pointComponents (long maxSqDist) {
+
+      EMST.UnionFind sets = new EMST.UnionFind(pointCount);
+
+      for (int c = 0; c < cellCount; c++) {
+
+         int xCell = cellX(c);
+         int yCell = cellY(c);
+
+         for (int s = 0; s < HALF_STENCIL.length; s++) {
+
+            int nc = s == 0 ? c : cellIndex(xCell + HALF_STENCIL[s][0], yCell + HALF_STENCIL[s][1]);
+            if (nc < 0 || minSqDist(c, nc) > maxSqDist) continue;
+
+            if (maxSqDist(c, nc) <= maxSqDist) {
+               for (int i = cellStart[c]; i < cellStart[c+1]; i++) sets.union(cellStart[c], i);
+               for (int j = cellStart[nc]; j < cellStart[nc+1]; j++) sets.union(cellStart[c], j);
+               continue;
+            }
+
+            for (int i = cellStart[c]; i < cellStart[c+1]; i++) {
+
+               int from = s == 0 ? i + 1 : cellStart[nc];
+
+               for (int j = from; j < cellStart[nc+1]; j++) {
+
+                  long xDiff = sortedX[i] - sortedX[j];
+                  long yDiff = sortedY[i] - sortedY[j];
+
+                  if (xDiff * xDiff + yDiff * yDiff <= maxSqDist) sets.union(i, j);
+               }
+            }
+         }
+      }
+
+      return sets;
+   }
+
+   // Squared distance from each point (by id) to its k-th nearest other point, or
+   // Long.MAX_VALUE when fewer than k points are within maxSqDist. Only the cells
+   // within that range are searched, nearest first, and a cell is skipped when its
+   // bounding box is farther than the k-th nearest point found so far. Points are
+   // taken in slices of the sorted order, on up to threads threads
+   long[] kthSqDists (int k, long maxSqDist, int threads) {
+
+      long[] out = new long[pointCount];
+      int rings = (int) Math.ceil(Math.sqrt(maxSqDist) / cellSize);
+      EMST.Stencil stencil = new EMST.Stencil(rings, cellSize, maxSqDist);
+      int slices = Math.max(1, Math.min(threads, pointCount / KNN_SLICE));
+
+      EMST.parallelFor(slices, s -> {
+
+         BoundedHeap nearest = new BoundedHeap(k);
+
+         for (int i = EMST.sliceStart(s, slices, pointCount); i < EMST.sliceStart(s + 1, slices, pointCount); i++) {
+
+            nearest.clear();
+            nearestWithin(i, maxSqDist, stencil, nearest);
+
+            out[order[i]] = nearest.isFull() ? nearest.maxKey() : Long.MAX_VALUE;
+         }
+      });
+
+      return out;
+   }
+
+   static final int KNN_SLICE = 1 << 10;
+
+   // Offers to nearest the points within maxSqDist of the point in position i (not
+   // itself), scanning the stencil around its cell in order of distance
+   private void nearestWithin (int i, long maxSqDist, EMST.Stencil stencil, BoundedHeap nearest) {
+
+      int x = sortedX[i], y = sortedY[i];
+      int xCell = cellCoord(x), yCell = cellCoord(y);
+
+      for (int s = 0; s < stencil.size; s++) {
+
+         long bound = nearest.isFull() ? nearest.maxKey() : maxSqDist;
+         if (stencil.minSqDist[s] > bound) break;
+
+         int c = cellIndex(xCell + stencil.xShift[s], yCell + stencil.yShift[s]);
+         if (c < 0) continue;
+
+         long xGap = Math.max(0, Math.max((long) cellMinX[c] - x, (long) x - cellMaxX[c]));
+         long yGap = Math.max(0, Math.max((long) cellMinY[c] - y, (long) y - cellMaxY[c]));
+         if (xGap * xGap + yGap * yGap > bound) continue;
+
+         for (int j = cellStart[c]; j < cellStart[c+1]; j++) {
+
+            long xDiff = sortedX[j] - x;
+            long yDiff = sortedY[j] - y;
+            long sqDist = xDiff * xDiff + yDiff * yDiff;
+
+            if (j != i && sqDist <= maxSqDist) nearest.offer(sqDist, order[j]);
+         }
+      }
+   }
+
+   // Batch k-nearest-neighbor queries: for each query point (qx[q], qy[q]), the k
+   // indexed points nearest to it (all of them if there are fewer), by ascending
+   // distance. Cells are searched in rings around the query's cell, clipped to the
+   // range of the occupied cells, until the occupied cells left outside the rings
+   // are farther than the k-th point found; a cell whose bounding box is farther is
+   // skipped. Queries are taken in slices, each with its own bounded heap, on up to
+   // threads threads
+   EMST.Neighbors nearest (int[] qx, int[] qy, int queries, int k, int threads) {
+
+      int found = Math.min(k, pointCount);
+      int[] start = new int[queries + 1];
+      int[] ids = new int[Math.multiplyExact(queries, found)];
+      long[] sqDists = new long[ids.length];
+      int slices = Math.max(1, Math.min(threads, queries / KNN_SLICE));
+
+      for (int q = 0; q <= queries; q++) start[q] = q * found;
+
+      EMST.parallelFor(slices, s -> {
+
+         BoundedHeap nearest = new BoundedHeap(found);
+
+         for (int q = EMST.sliceStart(s, slices, queries); q < EMST.sliceStart(s + 1, slices, queries); q++) {
+
+            nearest.clear();
+            if (found > 0) searchRings(qx[q], qy[q], nearest);
+
+            nearest.drainAscending(sqDists, ids, start[q]);
+         }
+      });
+
+      return new EMST.Neighbors(start, ids, sqDists);
+   }
+
+   private void searchRings (int x, int y, BoundedHeap nearest) {
+
+      int xCell = cellCoord(x), yCell = cellCoord(y);
+
+      // Rings nearer than the range of the occupied cells are empty
+      long first = Math.max(0, Math.max(Math.max((long) xFirst - xCell, (long) xCell - xLast),
+                                        Math.max((long) yFirst - yCell, (long) yCell - yLast)));
+
+      for (long r = first; ; r++) {
+
+         // Whole rows at the bottom and top of the ring, the columns at its two ends in between
+         scanSide(x, y, true, yCell - r, xCell - r, xCell + r, nearest);
+         if (r > 0) scanSide(x, y, true, yCell + r, xCell - r, xCell + r, nearest);
+         scanSide(x, y, false, xCell - r, yCell - r + 1, yCell + r - 1, nearest);
+         if (r > 0) scanSide(x, y, false, xCell + r, yCell - r + 1, yCell + r - 1, nearest);
+
+         double rest = outsideSqDist(x, y, xCell, yCell, r);
+         if (rest == Double.POSITIVE_INFINITY || nearest.isFull() && rest > nearest.maxKey()) break;
+      }
+   }
+
+   // Scans row line (or column, when row is false) of cells from lo to hi, clipped
+   // to the occupied range. The cells are taken from the one facing the query
+   // outwards, so the nearest are found first, and each direction stops at the
+   // first cell farther than the k-th point: for a far query, a short stretch of a
+   // long side
+   private void scanSide (int x, int y, boolean row, long line, long lo, long hi, BoundedHeap nearest) {
+
+      if (line < (row ? yFirst : xFirst) || line > (row ? yLast : xLast)) return;
+
+      long from = Math.max(lo, row ? xFirst : yFirst);
+      long to = Math.min(hi, row ? xLast : yLast);
+      long facing = Math.max(from, Math.min(to, cellCoord(row ? x : y)));
+
+      for (long c = facing; c <= to; c++) {
+         if (!(row ? scanCell(c, line, x, y, nearest) : scanCell(line, c, x, y, nearest))) break;
+      }
+
+      for (long c = facing - 1; c >= from; c--) {
+         if (!(row ? scanCell(c, line, x, y, nearest) : scanCell(line, c, x, y, nearest))) break;
+      }
+   }
+
+   // Lower bound on the squared distance from (x, y) to the occupied cells outside
+   // the square of rings 0 ... r around its cell (infinite if there are none): the
+   // nearest of the four bands of the occupied range left, right, below and above
+   // the square. Unlike the ring number, it stays tight for queries far outside
+   // the points, which approach them diagonally
+   private double outsideSqDist (int x, int y, long xCell, long yCell, long r) {
+
+      return Math.min(Math.min(bandSqDist(x, y, xFirst, xCell - r - 1, yFirst, yLast),
+                               bandSqDist(x, y, xCell + r + 1, xLast, yFirst, yLast)),
+                      Math.min(bandSqDist(x, y, xFirst, xLast, yFirst, yCell - r - 1),
+                               bandSqDist(x, y, xFirst, xLast, yCell + r + 1, yLast)));
+   }
+
+   // Squared distance from (x, y) to the cells in [xLo, xHi] x [yLo, yHi], with a
+   // unit of slack for the rounding of the cell coordinates
+   private double bandSqDist (int x, int y, long xLo, long xHi, long yLo, long yHi) {
+
+      if (xLo > xHi || yLo > yHi) return Double.POSITIVE_INFINITY;
+
+      double xGap = Math.max(0, Math.max(xLo * cellSize - x, x - (xHi + 1) * cellSize) - 1);
+      double yGap = Math.max(0, Math.max(yLo * cellSize - y, y - (yHi + 1) * cellSize) - 1);
+
+      return xGap * xGap + yGap * yGap;
+   }
+
+   // Offers the points of cell (xCol, yRow) to nearest, unless the cell is empty or
+   // it (then its bounding box) is farther from (x, y) than the k-th point found so
+   // far. The first test needs no lookup of the cell; false if it fails
+   private boolean scanCell (long xCol, long yRow, int x, int y, BoundedHeap nearest) {
+
+      if (nearest.isFull() && bandSqDist(x, y, xCol, xCol, yRow, yRow) > nearest.maxKey()) return false;
+
+      int c = cellIndex((int) xCol, (int) yRow);
+      if (c < 0) return true;
+
+      long xGap = Math.max(0, Math.max((long) cellMinX[c] - x, (long) x - cellMaxX[c]));
+      long yGap = Math.max(0, Math.max((long) cellMinY[c] - y, (long) y - cellMaxY[c]));
+      if (nearest.isFull() && xGap * xGap + yGap * yGap > nearest.maxKey()) return true;
+
+      for (int j = cellStart[c]; j < cellStart[c+1]; j++) {
+         long xDiff = sortedX[j] - x;
+         long yDiff = sortedY[j] - y;
+         nearest.offer(xDiff * xDiff + yDiff * yDiff, order[j]);
+      }
+
+      return true;
+   }
+
+   // Batch radius queries: for each query point, the indexed points within
+   // maxSqDist of it, in cell order. Only the occupied cells in range are visited:
+   // the cells of a row are contiguous in cellKeys, so each row of the query's
+   // square is one binary search and a walk. Each slice of queries collects its
+   // results in its own list, and the lists are concatenated in query order
+   EMST.Neighbors within (int[] qx, int[] qy, int queries, long maxSqDist, int threads) {
+
+      int[] start = new int[queries + 1];
+      int slices = Math.max(1, Math.min(threads, queries / KNN_SLICE));
+      EMST.EdgeList[] found = new EMST.EdgeList[slices];
+      long reach = maxSqDist < 0 ? -1 : (long) Math.ceil(Math.sqrt(maxSqDist));
+
+      EMST.parallelFor(slices, s -> {
+
+         EMST.EdgeList results = found[s] = new EMST.EdgeList();
+
+         for (int q = EMST.sliceStart(s, slices, queries); q < EMST.sliceStart(s + 1, slices, queries); q++) {
+
+            int x = qx[q], y = qy[q];
+            int before = results.size;
+
+            long yLo = Math.max(yFirst, clampedCellCoord((long) y - reach));
+            long yHi = Math.min(yLast, clampedCellCoord((long) y + reach));
+            int xLo = clampedCellCoord((long) x - reach);
+            int xHi = clampedCellCoord((long) x + reach);
+
+            for (long row = yLo; reach >= 0 && row <= yHi; row++) {
+
+               int c = Arrays.binarySearch(cellKeys, key(xLo, (int) row));
+               if (c < 0) c = -c - 1;
+
+               for (long last = key(xHi, (int) row); c < cellCount && cellKeys[c] <= last; c++) {
+
+                  long xGap = Math.max(0, Math.max((long) cellMinX[c] - x, (long) x - cellMaxX[c]));
+                  long yGap = Math.max(0, Math.max((long) cellMinY[c] - y, (long) y - cellMaxY[c]));
+                  if (xGap * xGap + yGap * yGap > maxSqDist) continue;
+
+                  for (int j = cellStart[c]; j < cellStart[c+1]; j++) {
+
+                     long xDiff = sortedX[j] - x;
+                     long yDiff = sortedY[j] - y;
+                     long sqDist = xDiff * xDiff + yDiff * yDiff;
+
+                     if (sqDist <= maxSqDist) results.add(sqDist, q, order[j]);
+                  }
+               }
+            }
+
+            start[q + 1] = results.size - before;
+         }
+      });
+
+      for (int q = 0; q < queries; q++) start[q + 1] += start[q];
+
+      int[] ids = new int[start[queries]];
+      long[] sqDists = new long[ids.length];
+
+      for (int s = 0, at = 0; s < slices; s++) {
+         System.arraycopy(found[s].b, 0, ids, at, found[s].size);
+         System.arraycopy(found[s].sqDist, 0, sqDists, at, found[s].size);
+         at += found[s].size;
+      }
+
+      return new EMST.Neighbors(start, ids, sqDists);
+   }
+
+   // The k smallest keys offered, with their ids: a binary max-heap on the keys, so
+   // the largest of them (the one to evict) is at the root
+   static class BoundedHeap {
+
+      final long[] keys;
+      final int[] ids;
+      int size;
+
+      BoundedHeap (int k) {
+         keys = new long[k];
+         ids = new int[k];
+      }
+
+      void clear () {
+         size = 0;
+      }
+
+      boolean isFull () {
+         return size == keys.length;
+      }
+
+      long maxKey () {
+         return keys[0];
+      }
+
+      void offer (long key, int id) {
+
+         if (size < keys.length) {
+
+            // Sift up from the new leaf
+            int pos = size++;
+            while (pos > 0 && keys[(pos - 1) / 2] < key) {
+               keys[pos] = keys[(pos - 1) / 2];
+               ids[pos] = ids[(pos - 1) / 2];
+               pos = (pos - 1) / 2;
+            }
+            keys[pos] = key;
+            ids[pos] = id;
+
+         } else if (key < keys[0]) {
+            siftDown(key, id);
+         }
+      }
+
+      // Puts (key, id) at the root in place of the current one and sifts it down
+      private void siftDown (long key, int id) {
+
+         int pos = 0;
+
+         while (2 * pos + 1 < size) {
+            int child = 2 * pos + 1;
+            if (child + 1 < size && keys[child + 1] > keys[child]) child++;
+            if (keys[child] <= key) break;
+            keys[pos] = keys[child];
+            ids[pos] = ids[child];
+            pos = child;
+         }
+
+         keys[pos] = key;
+         ids[pos] = id;
+      }
+
+      // Empties the heap into keys[at...] and ids[at...], by ascending key
+      void drainAscending (long[] outKeys, int[] outIds, int at) {
+
+         while (size > 0) {
+
+            outKeys[at + size - 1] = keys[0];
+            outIds[at + size - 1] = ids[0];
+
+            // The last leaf takes the place of the root
+            size--;
+            siftDown(keys[size], ids[size]);
+         }
+      }
+   }
+
+   // Coarser levels over the occupied cells: block (bx, by) of level l groups the
+   // cells (x, y) with x >> l == bx and y >> l == by, and level 0 is the grid
+   // itself. Every level keeps the keys of its occupied blocks, ascending, with the
+   // bounding box of their points and the position of one of them, so a search can
+   // skip a whole empty or distant region with a single lookup. Each level is built
+   // from the one below with a radix sort of the parent keys, up to a single block
+   static class Blocks {
+
+      final int levels;
+      final long[][] keys;
+      final int[][] minX, minY, maxX, maxY;
+      final int[][] point;                               // Sorted position of one point of each block
+
+      Blocks (GridIndex g) {
+
+         ArrayList<long[]> k = new ArrayList<>(List.of(g.cellKeys));
+         ArrayList<int[][]> boxes = new ArrayList<>();
+         boxes.add(new int[][] {g.cellMinX, g.cellMinY, g.cellMaxX, g.cellMaxY, g.cellStart});
+
+         while (k.get(k.size() - 1).length > 1 && k.size() < Integer.SIZE) {
+
+            long[] below = k.get(k.size() - 1);
+            int[][] belowBoxes = boxes.get(boxes.size() - 1);
+            int m = below.length;
+
+            long[] parents = new long[m];
+            int[] children = new int[m];
+
+            for (int c = 0; c < m; c++) {
+               int x = (int) below[c] ^ Integer.MIN_VALUE, y = (int) (below[c] >> 32);
+               parents[c] = key(x >> 1, y >> 1);
+               children[c] = c;
+            }
+
+            EMST.sortByKey(parents, children, m);
+
+            int blocks = 0;
+            for (int c = 0; c < m; c++) {
+               if (c == 0 || parents[c] != parents[c-1]) blocks++;
+            }
+
+            long[] level = new long[blocks];
+            int[][] box = new int[5][blocks];
+
+            for (int c = 0, b = -1; c < m; c++) {
+
+               int child = children[c];
+
+               if (c == 0 || parents[c] != parents[c-1]) {
+                  level[++b] = parents[c];
+                  box[0][b] = box[1][b] = Integer.MAX_VALUE;
+                  box[2][b] = box[3][b] = Integer.MIN_VALUE;
+                  box[4][b] = belowBoxes[4][child];
+               }
+
+               box[0][b] = Math.min(box[0][b], belowBoxes[0][child]);
+               box[1][b] = Math.min(box[1][b], belowBoxes[1][child]);
+               box[2][b] = Math.max(box[2][b], belowBoxes[2][child]);
+               box[3][b] = Math.max(box[3][b], belowBoxes[3][child]);
+            }
+
+            k.add(level);
+            boxes.add(box);
+         }
+
+         levels = k.size();
+         keys = k.toArray(new long[levels][]);
+         minX = new int[levels][];
+         minY = new int[levels][];
+         maxX = new int[levels][];
+         maxY = new int[levels][];
+         point = new int[levels][];
+
+         for (int l = 0; l < levels; l++) {
+            minX[l] = boxes.get(l)[0];
+            minY[l] = boxes.get(l)[1];
+            maxX[l] = boxes.get(l)[2];
+            maxY[l] = boxes.get(l)[3];
+            point[l] = boxes.get(l)[4];
+         }
+      }
+
+      // Index of block (bx, by) of the level, or -1 if it holds no points
+      int index (int level, int bx, int by) {
+         int b = Arrays.binarySearch(keys[level], key(bx, by));
+         return b >= 0 ? b : -1;
+      }
+   }
+
+   // Orders cells by row, then by column
+   static long key (int xCell, int yCell) {
+      return ((long) yCell << 32) | ((xCell ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+   }
+
+}
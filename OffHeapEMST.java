@@ -0,0 +1,443 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import jdk.incubator.foreign.*;
+
+// Alpha-EMST with the point set, the grid and the tree edges in native memory.
+// Same lazy Prim strategy as EMST, but on a flat grid of primitive records instead
+// of Point and Cell objects, so on huge inputs the GC has almost nothing to
+// scan: only the PQ of the current frontier stays on the heap.
+//
+// The points can be cached in a memory-mapped file: later runs on the same input
+// map it instead of parsing the text again, and share it through the page cache.
+// The tree edges can be written to a mapped file as well.
+//
+// Compile and run with --add-modules jdk.incubator.foreign (the incubating Foreign
+// Memory API of JDK 17). The API changed in later releases, so this class needs
+// JDK 17 exactly; no other class depends on it.
+public class OffHeapEMST implements AutoCloseable {
+
+/*
+File structure (top to bottom)
+   - Main method
+   - Loading (text input, point cache)
+   - Grid construction
+   - Prim's algorithm
+   - Support methods
+*/
+
+// --------------------------------------- MAIN ---------------------------------------
+   public static void main(String[] args) {
+
+      String usage = "Invalid arguments. Correct use is: java OffHeapEMST <path/to/file.txt> <alpha>"
+                   + " [-cache <points_file>] [-edges <edges_file>]";
+
+      // Check command line arguments
+      if (args.length < 2) {
+         System.err.println(usage);
+         return;
+      }
+
+      double alpha = 0.0;
+      Path cache = null;
+      Path edgeFile = null;
+
+      try {
+         alpha = Double.parseDouble(args[1]);
+      } catch (NumberFormatException e) {
+         System.err.println("Can't interpret alpha as double");
+         return;
+      }
+
+      try {
+         for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+               case "-cache": cache = Paths.get(args[++i]); break;
+               case "-edges": edgeFile = Paths.get(args[++i]); break;
+               default:       throw new IllegalArgumentException(args[i]);
+            }
+         }
+      } catch (RuntimeException e) {
+         System.err.println(usage);
+         return;
+      }
+
+      try (OffHeapEMST emst = new OffHeapEMST(args[0], alpha, cache, edgeFile)) {
+         System.out.println(emst);
+      } catch (Exception e) {
+         System.err.println(e);
+      }
+   }
+
+// --------------------------------------- LOADING ---------------------------------------
+
+   // Point cache: header of CACHE_HEADER longs (magic, input size, input modification
+   // time, point count), then the (int x, int y) records in native byte order
+   private static final long CACHE_MAGIC  = 0x454D53544F464648L;
+   private static final int CACHE_HEADER  = 4;
+   private static final long POINT_RECORD = 8;
+   private static final long EDGE_RECORD  = ExternalEMST.EDGE_RECORD;
+
+   private double alpha;
+   private long maxSqDist;
+   private int vCount;
+
+   // Every segment belongs to this scope and is freed by close()
+   private final ResourceScope scope = ResourceScope.newConfinedScope();
+
+   private MemorySegment coords;          // vCount x (x, y), in input order
+   private MemorySegment order;           // Point ids sorted by cell
+   private MemorySegment sortedCoords;    // (x, y) in the same order
+   private MemorySegment cellKeys;        // Keys of the occupied cells, ascending
+   private MemorySegment cellStart;       // Points of cell c are at positions [cellStart[c], cellStart[c+1])
+   private int cellCount;
+   private MemorySegment inEMST;          // One byte per sorted position
+
+   // Output informations: edge count, then (sqDist, idA, idB) records as in ExternalEMST
+   private MemorySegment edges;
+   private long edgeCount;
+   private double totalWeight;
+
+   public OffHeapEMST(String filePath, double a, Path cache, Path edgeFile) throws Exception {
+
+      alpha = a;
+      maxSqDist = EMST.maxSquaredDistance(a);
+
+      try {
+         Path input = Paths.get(filePath);
+
+         if (cache == null || !mapCache(input, cache)) loadPoints(input, cache);
+
+         if (vCount == 0) {
+            throw new Exception("Error while reading the points");
+         }
+
+         buildGrid();
+         PrimEMST(edgeFile);
+
+      } catch (Exception e) {
+         scope.close();
+         throw e;
+      }
+   }
+
+   @Override
+   public void close () {
+      scope.close();
+   }
+
+   // Maps the cache file if it was written for this very input. Returns false otherwise
+   private boolean mapCache (Path input, Path cache) throws IOException {
+
+      if (!Files.exists(cache) || Files.size(cache) < CACHE_HEADER * Long.BYTES) return false;
+
+      MemorySegment file = MemorySegment.mapFile(cache, 0, Files.size(cache), FileChannel.MapMode.READ_ONLY, scope);
+
+      long n = MemoryAccess.getLongAtIndex(file, 3);
+
+      if (MemoryAccess.getLongAtIndex(file, 0) != CACHE_MAGIC
+          || MemoryAccess.getLongAtIndex(file, 1) != Files.size(input)
+          || MemoryAccess.getLongAtIndex(file, 2) != Files.getLastModifiedTime(input).toMillis()
+          || file.byteSize() != CACHE_HEADER * Long.BYTES + n * POINT_RECORD) {
+         return false;
+      }
+
+      coords = file.asSlice(CACHE_HEADER * Long.BYTES);
+      vCount = (int) n;
+      return true;
+   }
+
+   // Parses the text input into native memory, growing the buffer by doubling.
+   // With a cache path, the points end up in that (mapped) file
+   private void loadPoints (Path input, Path cache) throws IOException {
+
+      ResourceScope bufferScope = ResourceScope.newConfinedScope();
+      MemorySegment buffer = MemorySegment.allocateNative(POINT_RECORD << 16, Long.BYTES, bufferScope);
+      long n = 0;
+
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(input), ExternalEMST.RECORD_BUFFER)) {
+
+         long[] value = new long[1];
+
+         while (ExternalEMST.readInt(in, value)) {
+
+            int x = (int) value[0];
+            if (!ExternalEMST.readInt(in, value)) break;
+            int y = (int) value[0];
+
+            if ((n + 1) * POINT_RECORD > buffer.byteSize()) {
+               ResourceScope grownScope = ResourceScope.newConfinedScope();
+               MemorySegment grown = MemorySegment.allocateNative(2 * buffer.byteSize(), Long.BYTES, grownScope);
+               grown.asSlice(0, buffer.byteSize()).copyFrom(buffer);
+               bufferScope.close();
+               buffer = grown;
+               bufferScope = grownScope;
+            }
+
+            MemoryAccess.setIntAtIndex(buffer, 2 * n, x);
+            MemoryAccess.setIntAtIndex(buffer, 2 * n + 1, y);
+            n++;
+         }
+
+         if (n > Integer.MAX_VALUE) throw new IOException("Too many points: " + n);
+
+         vCount = (int) n;
+         MemorySegment points = buffer.asSlice(0, n * POINT_RECORD);
+
+         if (cache == null) {
+            coords = MemorySegment.allocateNative(Math.max(1, n * POINT_RECORD), Long.BYTES, scope);
+            coords.asSlice(0, points.byteSize()).copyFrom(points);
+            return;
+         }
+
+         Files.deleteIfExists(cache);
+         Files.createFile(cache);
+
+         MemorySegment file = MemorySegment.mapFile(cache, 0, CACHE_HEADER * Long.BYTES + n * POINT_RECORD,
+                                                    FileChannel.MapMode.READ_WRITE, scope);
+
+         MemoryAccess.setLongAtIndex(file, 0, CACHE_MAGIC);
+         MemoryAccess.setLongAtIndex(file, 1, Files.size(input));
+         MemoryAccess.setLongAtIndex(file, 2, Files.getLastModifiedTime(input).toMillis());
+         MemoryAccess.setLongAtIndex(file, 3, n);
+
+         coords = file.asSlice(CACHE_HEADER * Long.BYTES);
+         coords.copyFrom(points);
+         file.force();
+
+      } finally {
+         bufferScope.close();
+      }
+   }
+
+// --------------------------------------- GRID CONSTRUCTION ---------------------------------------
+
+   // Same layout as GridIndex: points sorted by cell, occupied cells found by binary search
+   private void buildGrid () {
+
+      long n = vCount;
+
+      order = MemorySegment.allocateNative(n * Integer.BYTES, Long.BYTES, scope);
+      sortedCoords = MemorySegment.allocateNative(n * POINT_RECORD, Long.BYTES, scope);
+
+      try (ResourceScope temp = ResourceScope.newConfinedScope()) {
+
+         MemorySegment keys = MemorySegment.allocateNative(n * Long.BYTES, Long.BYTES, temp);
+
+         for (long i = 0; i < n; i++) {
+            int x = MemoryAccess.getIntAtIndex(coords, 2 * i);
+            int y = MemoryAccess.getIntAtIndex(coords, 2 * i + 1);
+
+            MemoryAccess.setLongAtIndex(keys, i, GridIndex.key(cellCoord(x), cellCoord(y)));
+            MemoryAccess.setIntAtIndex(order, i, (int) i);
+         }
+
+         sortByKey(keys, order, n);
+
+         long cells = 0;
+
+         for (long i = 0; i < n; i++) {
+            long id = MemoryAccess.getIntAtIndex(order, i);
+            MemoryAccess.setLongAtIndex(sortedCoords, i, MemoryAccess.getLongAtIndex(coords, id));
+
+            if (i == 0 || MemoryAccess.getLongAtIndex(keys, i) != MemoryAccess.getLongAtIndex(keys, i - 1)) cells++;
+         }
+
+         cellCount = (int) cells;
+         cellKeys = MemorySegment.allocateNative(cells * Long.BYTES, Long.BYTES, scope);
+         cellStart = MemorySegment.allocateNative((cells + 1) * Integer.BYTES, Long.BYTES, scope);
+
+         for (long i = 0, c = -1; i < n; i++) {
+            long key = MemoryAccess.getLongAtIndex(keys, i);
+            if (i == 0 || key != MemoryAccess.getLongAtIndex(keys, i - 1)) {
+               c++;
+               MemoryAccess.setLongAtIndex(cellKeys, c, key);
+               MemoryAccess.setIntAtIndex(cellStart, c, (int) i);
+            }
+         }
+         MemoryAccess.setIntAtIndex(cellStart, cells, vCount);
+      }
+   }
+
+   // EMST.sortByKey on native segments, with the same digits, skipped passes and
+   // offsets (EMST.radixDigit, radixDigitVaries and radixOffsets). Only the loops that
+   // read and write the segments are here, as one slice
+   private static void sortByKey (MemorySegment keys, MemorySegment values, long n) {
+
+      try (ResourceScope temp = ResourceScope.newConfinedScope()) {
+
+         MemorySegment keyBuf = MemorySegment.allocateNative(n * Long.BYTES, Long.BYTES, temp);
+         MemorySegment valBuf = MemorySegment.allocateNative(n * Integer.BYTES, Long.BYTES, temp);
+         int[][] count = new int[1][EMST.RADIX_DIGITS];
+
+         long or = 0, and = -1;
+         for (long i = 0; i < n; i++) {
+            or  |= MemoryAccess.getLongAtIndex(keys, i);
+            and &= MemoryAccess.getLongAtIndex(keys, i);
+         }
+
+         MemorySegment srcK = keys, dstK = keyBuf;
+         MemorySegment srcV = values, dstV = valBuf;
+
+         for (int shift = 0; shift < 64; shift += EMST.RADIX_BITS) {
+
+            // Skip digits where all the keys agree
+            if (!EMST.radixDigitVaries(or, and, shift)) continue;
+
+            java.util.Arrays.fill(count[0], 0);
+            for (long i = 0; i < n; i++) {
+               count[0][EMST.radixDigit(MemoryAccess.getLongAtIndex(srcK, i), shift)]++;
+            }
+
+            EMST.radixOffsets(count);
+
+            for (long i = 0; i < n; i++) {
+               long key = MemoryAccess.getLongAtIndex(srcK, i);
+               long pos = count[0][EMST.radixDigit(key, shift)]++;
+               MemoryAccess.setLongAtIndex(dstK, pos, key);
+               MemoryAccess.setIntAtIndex(dstV, pos, MemoryAccess.getIntAtIndex(srcV, i));
+            }
+
+            MemorySegment tk = srcK; srcK = dstK; dstK = tk;
+            MemorySegment tv = srcV; srcV = dstV; dstV = tv;
+         }
+
+         if (srcK != keys) {
+            keys.copyFrom(srcK);
+            values.copyFrom(srcV);
+         }
+      }
+   }
+
+// --------------------------------------- PRIM'S ALGORITHM ---------------------------------------
+
+   // Lazy Prim from the first input point, as in EMST. The PQ holds sorted positions
+   private void PrimEMST (Path edgeFile) throws IOException {
+
+      long bytes = Long.BYTES + Math.max(0, vCount - 1) * EDGE_RECORD;
+
+      if (edgeFile == null) {
+         edges = MemorySegment.allocateNative(bytes, Long.BYTES, scope);
+      } else {
+         Files.deleteIfExists(edgeFile);
+         Files.createFile(edgeFile);
+         edges = MemorySegment.mapFile(edgeFile, 0, bytes, FileChannel.MapMode.READ_WRITE, scope);
+      }
+
+      inEMST = MemorySegment.allocateNative(vCount, Long.BYTES, scope);
+      inEMST.fill((byte) 0);
+
+      EMST.EdgeHeap minPQ = new EMST.EdgeHeap();
+
+      // Start from the first point
+      int start = 0;
+      while (MemoryAccess.getIntAtIndex(order, start) != 0) start++;
+
+      visitPointNeighborhood(start, minPQ);
+
+      while (!minPQ.isEmpty() && edgeCount < vCount - 1) {
+
+         long sqDist = minPQ.minKey();
+         int u = minPQ.minFrom();
+         int v = minPQ.minTo();
+         minPQ.pop();
+
+         // Both points are already in the EMST, skip this edge
+         if (MemoryAccess.getByteAtOffset(inEMST, v) != 0) continue;
+
+         long record = Long.BYTES + edgeCount * EDGE_RECORD;
+         MemoryAccess.setLongAtOffset(edges, record, sqDist);
+         MemoryAccess.setIntAtOffset(edges, record + 8, MemoryAccess.getIntAtIndex(order, u));
+         MemoryAccess.setIntAtOffset(edges, record + 12, MemoryAccess.getIntAtIndex(order, v));
+         edgeCount++;
+         totalWeight += Math.sqrt(sqDist);
+
+         visitPointNeighborhood(v, minPQ);
+      }
+
+      MemoryAccess.setLongAtIndex(edges, 0, edgeCount);
+      if (edges.isMapped()) edges.force();
+   }
+
+   // Pushes the edges from the point at sorted position p to the points of the
+   // neighboring cells that are within alpha and not in the EMST yet
+   private void visitPointNeighborhood (int p, EMST.EdgeHeap minPQ) {
+
+      MemoryAccess.setByteAtOffset(inEMST, p, (byte) 1);
+
+      int px = MemoryAccess.getIntAtIndex(sortedCoords, 2L * p);
+      int py = MemoryAccess.getIntAtIndex(sortedCoords, 2L * p + 1);
+      int xCell = cellCoord(px);
+      int yCell = cellCoord(py);
+
+      for (int xShift = -1; xShift <= 1; xShift++) {
+         for (int yShift = -1; yShift <= 1; yShift++) {
+
+            int c = cellIndex(xCell + xShift, yCell + yShift);
+            if (c < 0) continue;
+
+            int end = MemoryAccess.getIntAtIndex(cellStart, c + 1);
+
+            for (int j = MemoryAccess.getIntAtIndex(cellStart, c); j < end; j++) {
+
+               if (MemoryAccess.getByteAtOffset(inEMST, j) != 0) continue;
+
+               long xDiff = px - MemoryAccess.getIntAtIndex(sortedCoords, 2L * j);
+               long yDiff = py - MemoryAccess.getIntAtIndex(sortedCoords, 2L * j + 1);
+               long sqDist = xDiff * xDiff + yDiff * yDiff;
+
+               if (sqDist <= maxSqDist) minPQ.push(sqDist, p, j);
+            }
+         }
+      }
+   }
+
+// --------------------------------------- SUPPORT METHODS ---------------------------------------
+
+   // Same cells as GridIndex and EMST's grid
+   private int cellCoord (int coord) {
+      return (int) Math.floor(coord / alpha);
+   }
+
+   // Index of cell (xCell, yCell), or -1 if it holds no points
+   private int cellIndex (int xCell, int yCell) {
+
+      long key = GridIndex.key(xCell, yCell);
+      int lo = 0, hi = cellCount - 1;
+
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         long midKey = MemoryAccess.getLongAtIndex(cellKeys, mid);
+
+         if (midKey < key) lo = mid + 1;
+         else if (midKey > key) hi = mid - 1;
+         else return mid;
+      }
+
+      return -1;
+   }
+
+   // Output information to terminal
+   @Override
+   public String toString () {
+
+      if (edgeCount < vCount - 1) {
+         return "FAIL";
+      }
+
+      String outStr = String.format(java.util.Locale.US, "%.2f", totalWeight);
+
+      if (vCount <= 10) {
+         for (long i = 0; i < edgeCount; i++) {
+            long record = Long.BYTES + i * EDGE_RECORD;
+            long a = MemoryAccess.getIntAtOffset(edges, record + 8), b = MemoryAccess.getIntAtOffset(edges, record + 12);
+
+            outStr = outStr + "\n(" + MemoryAccess.getIntAtIndex(coords, 2 * a) + "," + MemoryAccess.getIntAtIndex(coords, 2 * a + 1)
+                   + ")(" + MemoryAccess.getIntAtIndex(coords, 2 * b) + "," + MemoryAccess.getIntAtIndex(coords, 2 * b + 1) + ")";
+         }
+      }
+
+      return outStr;
+   }
+
+}
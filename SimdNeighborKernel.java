@@ -0,0 +1,58 @@
+import jdk.incubator.vector.*;
+
+// Neighbor kernel on the (incubating) Vector API: computes the squared distances
+// from p to a whole run of cell points in SIMD lanes, masks out the points that
+// are too far or already in the EMST, and only writes out the survivors.
+// Dense cells with hundreds of points are where this pays off.
+//
+// Compile and run with --add-modules jdk.incubator.vector, then pass -simd to EMST.
+class SimdNeighborKernel implements EMST.NeighborKernel {
+
+   private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+   // Points of the stencil cells (k rings of cells alpha / k wide) are less than
+   // 2 alpha apart on each axis, so their squared distance stays below 8 alpha^2:
+   // int lanes are safe up to this bound
+   private static final long MAX_LANE_SQ_DIST = Integer.MAX_VALUE / 8;
+
+   private final int[] laneSqDists = new int[SPECIES.length()];
+
+   @Override
+   public int scan (int px, int py, int[] xs, int[] ys, boolean[] inEMST, int size,
+                    long maxSqDist, boolean allWithin, int[] outSlots, long[] outSqDists) {
+
+      if (maxSqDist > MAX_LANE_SQ_DIST) {
+         return EMST.ScalarKernel.scanRange(px, py, xs, ys, inEMST, 0, size,
+                                            allWithin ? Long.MAX_VALUE : maxSqDist, outSlots, outSqDists, 0);
+      }
+
+      int limit = (int) maxSqDist;
+      int hits = 0;
+      int i = 0;
+
+      for (int bound = SPECIES.loopBound(size); i < bound; i += SPECIES.length()) {
+
+         IntVector xDiff = IntVector.fromArray(SPECIES, xs, i).sub(px);
+         IntVector yDiff = IntVector.fromArray(SPECIES, ys, i).sub(py);
+         IntVector sqDist = xDiff.mul(xDiff).add(yDiff.mul(yDiff));
+
+         VectorMask<Integer> outside = VectorMask.fromArray(SPECIES, inEMST, i).not();
+         VectorMask<Integer> valid = allWithin ? outside : sqDist.compare(VectorOperators.LE, limit).and(outside);
+
+         if (!valid.anyTrue()) continue;
+
+         sqDist.intoArray(laneSqDists, 0);
+
+         for (long lanes = valid.toLong(); lanes != 0; lanes &= lanes - 1) {
+            int lane = Long.numberOfTrailingZeros(lanes);
+            outSlots[hits] = i + lane;
+            outSqDists[hits] = laneSqDists[lane];
+            hits++;
+         }
+      }
+
+      // Tail of the cell
+      return EMST.ScalarKernel.scanRange(px, py, xs, ys, inEMST, i, size, maxSqDist, outSlots, outSqDists, hits);
+   }
+
+}
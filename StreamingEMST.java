@@ -0,0 +1,121 @@
+import java.io.*;
+import java.util.*;
+
+// Sliding-window alpha-EMST over a stream of timestamped points.
+// Only the points of the last W seconds are kept: each arrival is inserted in a
+// DynamicEMST and each expired point is deleted from it, so memory is bounded by
+// the window and not by the length of the stream.
+public class StreamingEMST {
+
+/*
+File structure (top to bottom)
+   - Main method
+   - Window maintenance
+*/
+
+// --------------------------------------- MAIN ---------------------------------------
+   public static void main(String[] args) {
+
+      // Check command line arguments
+      if (args.length != 3) {
+         System.err.println("Invalid arguments. Correct use is: java StreamingEMST <path/to/stream | -> <alpha> <window_seconds>");
+         return;
+      }
+
+      double alpha  = 0.0;
+      double window = 0.0;
+
+      try {
+         alpha  = Double.parseDouble(args[1]);
+         window = Double.parseDouble(args[2]);
+      } catch (NumberFormatException e) {
+         System.err.println("Can't interpret alpha or window as double");
+         return;
+      }
+
+      // "-" reads from stdin. Any other path is opened as a stream, so named pipes work too
+      try (BufferedReader in = args[0].equals("-")
+               ? new BufferedReader(new InputStreamReader(System.in))
+               : new BufferedReader(new FileReader(args[0])) ) {
+
+         new StreamingEMST(alpha, window).run(in, System.out);
+
+      } catch (Exception e) {
+         System.err.println(e);
+      }
+   }
+
+// --------------------------------------- WINDOW MAINTENANCE ---------------------------------------
+
+   private double window;
+   private DynamicEMST emst;
+
+   // Live points in arrival order: timestamps and DynamicEMST ids
+   private ArrayDeque<double[]> live;
+
+   public StreamingEMST(double alpha, double w) {
+      window = w;
+      emst = new DynamicEMST(alpha);
+      live = new ArrayDeque<>();
+   }
+
+   // Reads "<timestamp> (x,y)" lines. Whenever the clock moves forward, one status
+   // line "<timestamp> <weight> <components>" is printed for the previous tick.
+   // The weight is that of the spanning forest: it is the alpha-EMST when components is 1
+   public void run (BufferedReader in, PrintStream out) throws IOException {
+
+      String line;
+      double now = Double.NEGATIVE_INFINITY;
+
+      while ((line = in.readLine()) != null) {
+
+         if (line.isBlank()) continue;
+
+         Scanner pointScan = new Scanner(line.trim());
+         pointScan.useDelimiter("[(),\\s]+");
+
+         double t = Double.parseDouble(pointScan.next());
+         int x = pointScan.nextInt();
+         int y = pointScan.nextInt();
+
+         pointScan.close();
+
+         if (t > now) {
+            if (now != Double.NEGATIVE_INFINITY) out.println(status(now));
+            now = t;
+            expire(now);
+         }
+
+         // Late points are stamped with the current time to keep the window ordered
+         add(Math.max(t, now), x, y);
+      }
+
+      if (now != Double.NEGATIVE_INFINITY) out.println(status(now));
+      out.flush();
+   }
+
+   public void add (double t, int x, int y) {
+      int id = emst.insert(x, y);
+      live.add(new double[] {t, id});
+   }
+
+   // Deletes every point older than (now - window)
+   public void expire (double now) {
+      while (!live.isEmpty() && live.peek()[0] < now - window) {
+         emst.remove((int) live.poll()[1]);
+      }
+   }
+
+   public double weight () {
+      return emst.weight();
+   }
+
+   public int components () {
+      return emst.components();
+   }
+
+   private String status (double t) {
+      return t + " " + String.format(java.util.Locale.US, "%.2f", emst.weight()) + " " + emst.components();
+   }
+
+}
@@ -0,0 +1,131 @@
+import java.io.*;
+import java.util.*;
+
+// Worker for the multi-process mode of ExternalEMST. It reads tiles from stdin and
+// answers with their local forest plus the candidate cross-tile edges on stdout,
+// using the same binary records as the spill files:
+//
+//    request  : int n, double alpha, n x (int id, int x, int y)
+//    response : int m, m x (long sqDist, int idA, int idB), sorted by weight
+//
+// A request with n < 0 (or the end of the input) stops the worker. Since the
+// protocol only needs a pair of streams, a worker can run in a local JVM, on
+// another host behind any command that forwards stdin/stdout (e.g. ssh), or in
+// a thread of the coordinator as a stand-in.
+public class TileWorker {
+
+   public static void main(String[] args) {
+
+      try {
+         serve(new DataInputStream(new BufferedInputStream(System.in, ExternalEMST.RECORD_BUFFER)),
+               new DataOutputStream(new BufferedOutputStream(System.out, ExternalEMST.RECORD_BUFFER)));
+      } catch (IOException e) {
+         System.err.println(e);
+         System.exit(1);
+      }
+   }
+
+   static void serve (DataInputStream in, DataOutputStream out) throws IOException {
+
+      while (true) {
+
+         int n;
+
+         try {
+            n = in.readInt();
+         } catch (EOFException e) {
+            return;
+         }
+
+         if (n < 0) return;
+
+         double alpha = in.readDouble();
+         ExternalEMST.solveTile(in, n, out, alpha);
+      }
+   }
+
+// --------------------------------------- TRANSPORTS ---------------------------------------
+
+   // Connection from the coordinator to one worker
+   static class Link implements Closeable {
+
+      final DataOutputStream toWorker;
+      final DataInputStream fromWorker;
+      private Closeable onClose;
+
+      Link (OutputStream out, InputStream in, Closeable c) {
+         toWorker = new DataOutputStream(new BufferedOutputStream(out, ExternalEMST.RECORD_BUFFER));
+         fromWorker = new DataInputStream(new BufferedInputStream(in, ExternalEMST.RECORD_BUFFER));
+         onClose = c;
+      }
+
+      @Override
+      public void close () throws IOException {
+         try {
+            toWorker.writeInt(-1);
+            toWorker.close();
+         } finally {
+            onClose.close();
+         }
+      }
+   }
+
+   // Opens new worker links
+   interface Transport {
+      Link open () throws IOException;
+   }
+
+   // Each link is a separate process started with the given command. The default
+   // command starts a JVM on this host with the coordinator's class path
+   static Transport processTransport (List<String> command) {
+
+      List<String> cmd = command != null ? command : List.of(
+            System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+            "-cp", System.getProperty("java.class.path"),
+            "TileWorker");
+
+      return () -> {
+         Process worker = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+         return new Link(worker.getOutputStream(), worker.getInputStream(), () -> {
+            try {
+               worker.waitFor();
+            } catch (InterruptedException e) {
+               worker.destroy();
+               Thread.currentThread().interrupt();
+            }
+         });
+      };
+   }
+
+   // Stand-in for remote workers: the worker runs on a thread of this JVM and is
+   // reached through pipes, exercising exactly the same protocol
+   static Transport localTransport () {
+
+      return () -> {
+         PipedOutputStream toWorker = new PipedOutputStream();
+         PipedInputStream workerIn = new PipedInputStream(toWorker, ExternalEMST.RECORD_BUFFER);
+         PipedOutputStream workerOut = new PipedOutputStream();
+         PipedInputStream fromWorker = new PipedInputStream(workerOut, ExternalEMST.RECORD_BUFFER);
+
+         Thread worker = new Thread(() -> {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(workerOut, ExternalEMST.RECORD_BUFFER))) {
+               serve(new DataInputStream(new BufferedInputStream(workerIn, ExternalEMST.RECORD_BUFFER)), out);
+            } catch (IOException e) {
+               System.err.println(e);
+            }
+         });
+         worker.setDaemon(true);
+         worker.start();
+
+         return new Link(toWorker, fromWorker, () -> {
+            try {
+               worker.join();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         });
+      };
+   }
+
+}